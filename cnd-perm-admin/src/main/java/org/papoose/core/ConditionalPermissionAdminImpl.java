@@ -46,7 +46,7 @@ import org.papoose.core.spi.ProtectionDomainFactory;
 /**
  *
  */
-public class ConditionalPermissionAdminImpl implements ConditionalPermissionAdmin, SynchronousBundleListener, ProtectionDomainFactory
+public class ConditionalPermissionAdminImpl implements ConditionalPermissionAdmin, SynchronousBundleListener, ProtectionDomainFactory, PermissionChangeListener
 {
     private final Map<String, ConditionalPermissionInfo> permissionTable = new HashMap<String, ConditionalPermissionInfo>();
     private Papoose framework;
@@ -153,6 +153,21 @@ public class ConditionalPermissionAdminImpl implements ConditionalPermissionAdmi
         return null;  //Todo: change body of implemented methods use File | Settings | File Templates.
     }
 
+    public void added(ConditionalPermissionInfo info)
+    {
+        framework.getBundleManager().permissionsChanged();
+    }
+
+    public void replaced(ConditionalPermissionInfo info)
+    {
+        framework.getBundleManager().permissionsChanged();
+    }
+
+    public void removed(ConditionalPermissionInfo info)
+    {
+        framework.getBundleManager().permissionsChanged();
+    }
+
     private class ConditionalPermissionInfoImpl implements ConditionalPermissionInfo
     {
         private final String name;
@@ -203,7 +218,7 @@ public class ConditionalPermissionAdminImpl implements ConditionalPermissionAdmi
 
         public void delete()
         {
-            permissionTable.remove(name);
+            if (permissionTable.remove(name) != null) removed(this);
         }
 
         public String getName()
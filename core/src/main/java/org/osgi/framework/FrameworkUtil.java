@@ -17,7 +17,6 @@
 package org.osgi.framework;
 
 import org.papoose.core.DefaultFilter;
-import org.papoose.core.filter.Parser;
 
 
 /**
@@ -29,7 +28,7 @@ public class FrameworkUtil
 
     public static Filter createFilter(String filter) throws InvalidSyntaxException
     {
-        return new DefaultFilter(new Parser().parse(filter));
+        return new DefaultFilter(org.papoose.core.FrameworkUtil.getParser().parse(filter));
     }
 }
 
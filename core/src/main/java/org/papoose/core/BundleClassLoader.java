@@ -18,6 +18,7 @@ package org.papoose.core;
 
 import java.io.IOException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.security.AccessController;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
@@ -26,15 +27,22 @@ import java.security.PrivilegedExceptionAction;
 import java.security.ProtectionDomain;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
-import org.apache.xbean.classloader.NamedClassLoader;
 import org.apache.xbean.classloader.ResourceHandle;
 import org.apache.xbean.classloader.ResourceLocation;
 import org.osgi.framework.Bundle;
@@ -50,12 +58,33 @@ import org.papoose.core.spi.ArchiveStore;
 /**
  *
  */
-public class BundleClassLoader extends NamedClassLoader implements BundleReference
+public class BundleClassLoader extends URLClassLoader implements BundleReference
 {
     private final static URL[] EMPTY_URLS = new URL[0];
+    private final static ThreadLocal<Boolean> PRELOADING = new ThreadLocal<Boolean>();
+
+    static
+    {
+        /*
+         * Extends URLClassLoader directly, rather than xbean's
+         * NamedClassLoader, since registration only takes effect when every
+         * super class is registered as parallel capable.
+         */
+        registerAsParallelCapable();
+    }
+
+    private final String name;
     private final Papoose framework;
     private final BundleGeneration bundleGeneration;
     private final Set<Wire> wires;
+    private final ConcurrentMap<String, Wire> wiresByPackage = new ConcurrentHashMap<String, Wire>();
+    private final Map<String, Wire> dynamicWires = new HashMap<String, Wire>();
+    private final MissCache classMisses = new MissCache();
+    private final MissCache resourceMisses = new MissCache();
+    private final Map<String, Long> dynamicMisses = new HashMap<String, Long>();
+    private final ConcurrentMap<DomainKey, ProtectionDomain> protectionDomains = new ConcurrentHashMap<DomainKey, ProtectionDomain>();
+    private volatile long protectionDomainsEpoch;
+    private volatile Queue<String> profile;
     private final List<Wire> requiredBundles;
     private final String[] exportedPackages;
     private final List<DynamicDescription> dynamicImports;
@@ -72,20 +101,23 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
                              List<ResourceLocation> boundClassPath,
                              Set<ArchiveStore> archiveStores) throws BundleException
     {
-        super(bundleGeneration.getBundleController().getLocation(), EMPTY_URLS, framework.getClassLoader());
+        super(EMPTY_URLS, framework.getClassLoader());
 
         assert wires != null;
         assert requiredBundles != null;
         assert boundClassPath != null;
 
+        this.name = bundleGeneration.getBundleController().getLocation();
         this.framework = framework;
         this.bundleGeneration = bundleGeneration;
-        this.wires = new HashSet<Wire>(wires);
+        this.wires = new CopyOnWriteArraySet<Wire>(wires);
         this.requiredBundles = requiredBundles;
         this.exportedPackages = exportedPackages;
         this.dynamicImports = Collections.unmodifiableList(dynamicImports);
         this.boundClassPath = boundClassPath;
         this.archiveStores = archiveStores;
+
+        for (Wire wire : wires) wiresByPackage.put(wire.getPackageName(), wire);
     }
 
     /**
@@ -115,6 +147,140 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
         return result;
     }
 
+    /**
+     * Add a wire obtained from a dynamic import and make it visible to
+     * subsequent class and resource loads.  The caller must hold the lock on
+     * <code>dynamicImports</code>.  A wire of a package that is already
+     * imported does not replace the package's import wire.
+     *
+     * @param wire the new wire
+     */
+    private void addWire(Wire wire)
+    {
+        assert Thread.holdsLock(dynamicImports);
+
+        wires.add(wire);
+        dynamicWires.put(wire.getPackageName(), wire);
+        wiresByPackage.putIfAbsent(wire.getPackageName(), wire);
+    }
+
+    /**
+     * Start recording the names of the classes defined by this loader.
+     */
+    void startProfile()
+    {
+        profile = new ConcurrentLinkedQueue<String>();
+    }
+
+    /**
+     * Stop recording the names of the classes defined by this loader.
+     *
+     * @return the names of the classes defined, in the order that they were defined, or null if no recording was made
+     */
+    List<String> stopProfile()
+    {
+        Queue<String> recorded = profile;
+        profile = null;
+
+        return recorded == null ? null : new ArrayList<String>(recorded);
+    }
+
+    /**
+     * Define, from the bound class path, classes that have not yet been
+     * loaded.  While preloading, no bundle with a lazy activation policy will
+     * define a class, so activators are never triggered early.  Classes that
+     * cannot be defined are skipped and left to be loaded on demand.  No
+     * lock of this loader is held while defining, so the concurrent preloads
+     * of bundles that extend each other's classes cannot deadlock.
+     *
+     * @param classNames the names of the classes to preload
+     * @return the number of classes defined
+     */
+    @SuppressWarnings({ "EmptyCatchBlock" })
+    int preload(List<String> classNames)
+    {
+        int count = 0;
+
+        PRELOADING.set(Boolean.TRUE);
+        try
+        {
+            for (String className : classNames)
+            {
+                if (findLoadedClass(className) != null) continue;
+
+                for (ResourceLocation location : boundClassPath)
+                {
+                    try
+                    {
+                        findClass(location, className);
+                        count++;
+                        break;
+                    }
+                    catch (ClassNotFoundException doNothing)
+                    {
+                    }
+                    catch (LinkageError doNothing)
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            PRELOADING.remove();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the metrics of this loader's bundle or null if class loading metrics are not being collected
+     */
+    private BundleClassLoadingMetrics metrics()
+    {
+        ClassLoadingMetricsImpl classLoadingMetrics = framework.getBundleManager().getClassLoadingMetrics();
+        return classLoadingMetrics == null ? null : classLoadingMetrics.obtain(bundleGeneration.getBundleController().getBundleId());
+    }
+
+    private void recordWireDelegation()
+    {
+        BundleClassLoadingMetrics metrics = metrics();
+        if (metrics != null) metrics.wireDelegated();
+    }
+
+    private void recordProbe()
+    {
+        BundleClassLoadingMetrics metrics = metrics();
+        if (metrics != null) metrics.classPathProbed();
+    }
+
+    private void recordMiss()
+    {
+        BundleClassLoadingMetrics metrics = metrics();
+        if (metrics != null) metrics.missed();
+    }
+
+    /**
+     * Remember that a class could not be found.  Misses while preloading are
+     * not remembered since lazily activated bundles refuse to define classes
+     * only for the duration of the preload.
+     *
+     * @param className the name of the class that could not be found
+     * @param epoch     the wiring epoch the search was made in
+     */
+    private void missed(String className, long epoch)
+    {
+        if (PRELOADING.get() == null) classMisses.add(className, epoch);
+        recordMiss();
+    }
+
+    private void recordDynamicImport()
+    {
+        BundleClassLoadingMetrics metrics = metrics();
+        if (metrics != null) metrics.dynamicImportResolved();
+    }
+
     boolean isLazyActivation()
     {
         return lazyActivation;
@@ -132,17 +298,14 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
 
         String packageName = className.substring(0, Math.max(0, className.lastIndexOf('.')));
 
-        for (String delegate : framework.getBootDelegates())
+        if (framework.getBootDelegation().matches(packageName))
         {
-            if ((delegate.endsWith(".") && packageName.regionMatches(0, delegate, 0, delegate.length() - 1)) || packageName.equals(delegate))
+            try
+            {
+                return getParent().loadClass(className);
+            }
+            catch (ClassNotFoundException doNothing)
             {
-                try
-                {
-                    return getParent().loadClass(className);
-                }
-                catch (ClassNotFoundException doNothing)
-                {
-                }
             }
         }
 
@@ -184,76 +347,79 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
 
         String packageName = resourceName.substring(0, Math.max(0, resourceName.lastIndexOf('/')));
 
-        for (String delegate : framework.getBootDelegates())
-        {
-            delegate = delegate.replace(".", "/");
-
-            if ((delegate.endsWith("/") && packageName.regionMatches(0, delegate, 0, delegate.length() - 1)) || packageName.equals(delegate))
-            {
-                return getParent().getResources(resourceName);
-            }
-        }
+        if (framework.getBootDelegation().matches(packageName)) return getParent().getResources(resourceName);
 
         return delegateHuntResources(resourceName, stopAtFirst);
     }
 
     private Enumeration<URL> delegateHuntResources(String resourceName, boolean stopAtFirst)
     {
-        String packageName = resourceName.substring(0, Math.max(0, resourceName.lastIndexOf('/')));
+        long epoch = framework.getBundleManager().getWiringEpoch();
 
-        for (Wire wire : wires)
+        if (resourceMisses.contains(resourceName, epoch))
         {
-            if (wire.validFor(resourceName)) return wire.getBundleClassLoader().delegateHuntResources(resourceName, stopAtFirst);
+            recordMiss();
+            return Collections.enumeration(Collections.<URL>emptySet());
+        }
+
+        int packageIndex = Math.max(0, resourceName.lastIndexOf('/'));
+        String packageName = resourceName.substring(0, packageIndex);
+
+        Wire importWire = wiresByPackage.get(packageName.replace('/', '.'));
+        if (importWire != null && (!importWire.isFiltered() || importWire.admits(resourceName.substring(Math.min(resourceName.length(), packageIndex + 1)))))
+        {
+            recordWireDelegation();
+            return importWire.getBundleClassLoader().delegateHuntResources(resourceName, stopAtFirst);
         }
 
         for (Wire wire : requiredBundles)
         {
-            if (wire.validFor(resourceName)) return wire.getBundleClassLoader().delegateHuntResources(resourceName, stopAtFirst);
+            if (wire.validFor(resourceName))
+            {
+                recordWireDelegation();
+                return wire.getBundleClassLoader().delegateHuntResources(resourceName, stopAtFirst);
+            }
         }
 
-        List<URL> urls = new ArrayList<URL>();
-        for (ResourceLocation location : boundClassPath)
+        for (int i = 0; i < boundClassPath.size(); i++)
         {
-            ResourceHandle resourceHandle = location.getResourceHandle(resourceName);
+            recordProbe();
+            ResourceHandle resourceHandle = boundClassPath.get(i).getResourceHandle(resourceName);
             if (resourceHandle != null)
             {
-                urls.add(resourceHandle.getUrl());
+                if (stopAtFirst) return Collections.enumeration(Collections.singleton(resourceHandle.getUrl()));
+                else return new ClassPathEnumeration(resourceName, resourceHandle.getUrl(), i + 1);
             }
         }
-        if (!urls.isEmpty()) return Collections.enumeration(urls);
-
 
         for (String exportedPackage : exportedPackages)
         {
-            if (exportedPackage.equals(packageName)) return Collections.enumeration(Collections.<URL>emptySet());
+            if (exportedPackage.equals(packageName))
+            {
+                resourceMisses.add(resourceName, epoch);
+                recordMiss();
+                return Collections.enumeration(Collections.<URL>emptySet());
+            }
         }
 
+        Wire dynamicWire;
         synchronized (dynamicImports)
         {
-            for (DynamicDescription dynamicDescription : dynamicImports)
-            {
-                for (String packagePattern : dynamicDescription.getPackagePatterns())
-                {
-                    if (packagePattern.length() == 0
-                        || (packagePattern.endsWith("/") && packageName.startsWith(packagePattern))
-                        || packageName.equals(packagePattern))
-                    {
-                        BundleController bundleController = bundleGeneration.getBundleController();
-                        ImportDescription importDescription = new ImportDescription(Collections.singleton(packageName), dynamicDescription.getParameters());
+            String dottedPackageName = packageName.replace('/', '.');
 
-                        Wire wire = bundleController.getFramework().getBundleManager().resolve(bundleController, importDescription);
+            dynamicWire = dynamicWires.get(dottedPackageName);
 
-                        if (wire != null)
-                        {
-                            wires.add(wire);
+            if (dynamicWire == null) dynamicWire = resolveDynamicImport(dottedPackageName);
+        }
 
-                            return wire.getBundleClassLoader().delegateHuntResources(resourceName, stopAtFirst);
-                        }
-                    }
-                }
-            }
+        if (dynamicWire != null && (!dynamicWire.isFiltered() || dynamicWire.admits(resourceName.substring(Math.min(resourceName.length(), packageIndex + 1)))))
+        {
+            return dynamicWire.getBundleClassLoader().delegateHuntResources(resourceName, stopAtFirst);
         }
 
+        resourceMisses.add(resourceName, epoch);
+        recordMiss();
+
         return Collections.enumeration(Collections.<URL>emptySet());
     }
 
@@ -267,8 +433,17 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
         return path;
     }
 
+    /**
+     * Load a class that is not boot delegated.  No lock of this loader is
+     * held, neither while delegating through wires nor while defining a
+     * class from the bundle's own class path, and since the loader is
+     * parallel capable the JVM does not lock it for the loads it initiates
+     * either.  Loads through cyclic wires therefore cannot deadlock.  Two
+     * threads may race to define the same class, the loser gets the class
+     * defined by the winner.
+     */
     @SuppressWarnings({ "EmptyCatchBlock" })
-    protected synchronized Class<?> delegateLoadClass(String className) throws ClassNotFoundException
+    protected Class<?> delegateLoadClass(String className) throws ClassNotFoundException
     {
         Class clazz = findLoadedClass(className);
 
@@ -277,19 +452,34 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
             return clazz;
         }
 
-        String packageName = className.substring(0, Math.max(0, className.lastIndexOf('.')));
+        long epoch = framework.getBundleManager().getWiringEpoch();
 
-        String wireCheck = className.replace('.', '/');
-        for (Wire wire : wires)
+        if (classMisses.contains(className, epoch))
         {
-            if (wire.validFor(wireCheck)) return wire.getBundleClassLoader().delegateLoadClass(className);
+            recordMiss();
+            throw new ClassNotFoundException(className);
         }
 
+        int packageIndex = className.lastIndexOf('.');
+        String packageName = className.substring(0, Math.max(0, packageIndex));
+
+        Wire importWire = wiresByPackage.get(packageName);
+        if (importWire != null && (!importWire.isFiltered() || importWire.admits(className.substring(packageIndex + 1))))
+        {
+            recordWireDelegation();
+            return importWire.getBundleClassLoader().delegateLoadClass(className);
+        }
+
+        String wireCheck = className.replace('.', '/');
         for (Wire wire : requiredBundles)
         {
             try
             {
-                if (wire.validFor(wireCheck)) return wire.getBundleClassLoader().delegateLoadClass(className);
+                if (wire.validFor(wireCheck))
+                {
+                    recordWireDelegation();
+                    return wire.getBundleClassLoader().delegateLoadClass(className);
+                }
             }
             catch (ClassNotFoundException doNothing)
             {
@@ -309,9 +499,52 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
 
         for (String exportedPackage : exportedPackages)
         {
-            if (exportedPackage.equals(packageName)) throw new ClassNotFoundException("Package " + packageName + " for " + className);
+            if (exportedPackage.equals(packageName))
+            {
+                missed(className, epoch);
+                throw new ClassNotFoundException("Package " + packageName + " for " + className);
+            }
+        }
+
+        Wire dynamicWire;
+        synchronized (dynamicImports)
+        {
+            dynamicWire = dynamicWires.get(packageName);
+
+            if (dynamicWire == null) dynamicWire = resolveDynamicImport(packageName);
         }
 
+        if (dynamicWire != null && (!dynamicWire.isFiltered() || dynamicWire.admits(className.substring(packageIndex + 1))))
+        {
+            return dynamicWire.getBundleClassLoader().delegateLoadClass(className);
+        }
+
+        missed(className, epoch);
+
+        throw new ClassNotFoundException();
+    }
+
+    /**
+     * Attempt to resolve a dynamic import for a package.  The caller must
+     * hold the lock on <code>dynamicImports</code>.
+     * <p/>
+     * Failed attempts are remembered along with the number of exporters of
+     * the package known at the time and are not retried until a new
+     * exporter of the package has been added to the framework.
+     *
+     * @param packageName the name of the package, in dot form
+     * @return the new wire or null if none of the dynamic imports could be resolved
+     */
+    private Wire resolveDynamicImport(String packageName)
+    {
+        assert Thread.holdsLock(dynamicImports);
+
+        BundleManager bundleManager = framework.getBundleManager();
+        long exporters = bundleManager.getExporterCount(packageName);
+        Long missed = dynamicMisses.get(packageName);
+
+        if (missed != null && missed == exporters) return null;
+
         for (DynamicDescription dynamicDescription : dynamicImports)
         {
             for (String packagePattern : dynamicDescription.getPackagePatterns())
@@ -323,20 +556,24 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
                     BundleController bundleController = bundleGeneration.getBundleController();
                     ImportDescription importDescription = new ImportDescription(Collections.singleton(packageName), dynamicDescription.getParameters());
 
-                    Wire wire = bundleController.getFramework().getBundleManager().resolve(bundleController, importDescription);
+                    Wire wire = bundleManager.resolve(bundleController, importDescription);
 
                     if (wire != null)
                     {
+                        recordDynamicImport();
                         // todo: should we remove this description if a wire is created?
-                        wires.add(wire);
+                        addWire(wire);
+                        dynamicMisses.remove(packageName);
 
-                        return wire.getBundleClassLoader().delegateLoadClass(className);
+                        return wire;
                     }
                 }
             }
         }
 
-        throw new ClassNotFoundException();
+        dynamicMisses.put(packageName, exporters);
+
+        return null;
     }
 
     private Class<?> findClass(final ResourceLocation location, final String className) throws ClassNotFoundException
@@ -349,6 +586,12 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
                 {
                     BundleManager manager = framework.getBundleManager();
 
+                    // do not let preloading define classes of bundles that are lazily activated
+                    if (PRELOADING.get() != null && bundleGeneration.getArchiveStore().getLazyActivationDescription().isLazyActivation())
+                    {
+                        throw new ClassNotFoundException(className);
+                    }
+
                     // first think check if we are allowed to define the package
                     SecurityManager securityManager = System.getSecurityManager();
                     if (securityManager != null)
@@ -365,6 +608,7 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
                     String resourceName = className.replace('.', '/') + ".class";
 
                     // find the class file resource
+                    recordProbe();
                     ResourceHandle resourceHandle = location.getResourceHandle(resourceName);
 
                     if (resourceHandle == null) throw new ClassNotFoundException(className);
@@ -394,12 +638,30 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
                     definePackage(className, codeSourceUrl, manifest);
 
                     // this is the security context of the class
-                    CodeSource codeSource = new CodeSource(codeSourceUrl, certificates);
-
-                    ProtectionDomain protectionDomain = manager.getProtectionDomainFactory().assignProtectionDomain(bundleGeneration, codeSource, getPermissions(codeSource));
+                    ProtectionDomain protectionDomain = obtainProtectionDomain(codeSourceUrl, certificates);
 
                     // load the class into the vm
-                    Class result = defineClass(className, bytes, 0, bytes.length, protectionDomain);
+                    BundleClassLoadingMetrics metrics = metrics();
+                    long start = (metrics != null ? System.nanoTime() : 0);
+
+                    Class result;
+                    try
+                    {
+                        result = defineClass(className, bytes, 0, bytes.length, protectionDomain);
+                    }
+                    catch (LinkageError le)
+                    {
+                        // another thread may have defined the class first
+                        Class defined = findLoadedClass(className);
+                        if (defined == null) throw le;
+
+                        return defined;
+                    }
+
+                    if (metrics != null) metrics.classDefined(bytes.length, System.nanoTime() - start);
+
+                    Queue<String> recording = profile;
+                    if (recording != null) recording.add(className);
 
                     if (isLazyActivation())
                     {
@@ -423,6 +685,58 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
         }
     }
 
+    /**
+     * Obtain the protection domain for a code source of this bundle
+     * generation.  Domains are shared by all the classes defined from the
+     * same code source and are discarded when the framework's permissions
+     * change.
+     *
+     * @param codeSourceUrl the code source url
+     * @param certificates  the certificates of the code source, may be null
+     * @return the protection domain for the code source or null if the factory did not assign one
+     */
+    private ProtectionDomain obtainProtectionDomain(URL codeSourceUrl, Certificate[] certificates)
+    {
+        BundleManager manager = framework.getBundleManager();
+        long epoch = manager.getPermissionEpoch();
+
+        if (epoch != protectionDomainsEpoch)
+        {
+            synchronized (protectionDomains)
+            {
+                if (epoch != protectionDomainsEpoch)
+                {
+                    protectionDomains.clear();
+                    protectionDomainsEpoch = epoch;
+                }
+            }
+        }
+
+        DomainKey key = new DomainKey(codeSourceUrl.toExternalForm(), certificates);
+        ProtectionDomain protectionDomain = protectionDomains.get(key);
+
+        if (protectionDomain == null)
+        {
+            CodeSource codeSource = new CodeSource(codeSourceUrl, certificates);
+
+            BundleClassLoadingMetrics metrics = metrics();
+            long start = (metrics != null ? System.nanoTime() : 0);
+
+            protectionDomain = manager.getProtectionDomainFactory().assignProtectionDomain(bundleGeneration, codeSource, getPermissions(codeSource));
+
+            if (metrics != null) metrics.protectionDomainAssigned(System.nanoTime() - start);
+
+            // some factories leave the domain to the VM's default, there is nothing to share
+            if (protectionDomain == null) return null;
+
+            ProtectionDomain existing = protectionDomains.putIfAbsent(key, protectionDomain);
+            if (existing != null) protectionDomain = existing;
+            else if (manager.getPermissionEpoch() != epoch) protectionDomains.remove(key, protectionDomain);
+        }
+
+        return protectionDomain;
+    }
+
     private void definePackage(String className, URL jarUrl, Manifest manifest)
     {
         int packageEnd = className.lastIndexOf('.');
@@ -474,10 +788,24 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
                 sealBase = jarUrl;
             }
 
-            definePackage(packageName, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor, sealBase);
+            try
+            {
+                definePackage(packageName, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor, sealBase);
+            }
+            catch (IllegalArgumentException iae)
+            {
+                // the package has just been defined by another thread
+                if (getPackage(packageName) == null) throw iae;
+            }
         }
     }
 
+    @Override
+    public String toString()
+    {
+        return "[BundleClassLoader name=" + name + "]";
+    }
+
     @Override
     protected PermissionCollection getPermissions(CodeSource codesource)
     {
@@ -505,4 +833,111 @@ public class BundleClassLoader extends NamedClassLoader implements BundleReferen
     {
         return "true".equalsIgnoreCase(getAttribute(Attributes.Name.SEALED, packageAttributes, mainAttributes));
     }
+
+    /**
+     * Enumerates the urls of a resource found on the bound class path.  The
+     * first url is known up front, the remaining class path locations are
+     * only probed as the enumeration is consumed.
+     */
+    private class ClassPathEnumeration implements Enumeration<URL>
+    {
+        private final String resourceName;
+        private URL next;
+        private int index;
+
+        private ClassPathEnumeration(String resourceName, URL first, int index)
+        {
+            this.resourceName = resourceName;
+            this.next = first;
+            this.index = index;
+        }
+
+        public boolean hasMoreElements()
+        {
+            while (next == null && index < boundClassPath.size())
+            {
+                recordProbe();
+                ResourceHandle resourceHandle = boundClassPath.get(index++).getResourceHandle(resourceName);
+                if (resourceHandle != null) next = resourceHandle.getUrl();
+            }
+            return next != null;
+        }
+
+        public URL nextElement()
+        {
+            if (!hasMoreElements()) throw new NoSuchElementException();
+
+            URL result = next;
+            next = null;
+
+            return result;
+        }
+    }
+
+    private static class DomainKey
+    {
+        private final String location;
+        private final Certificate[] certificates;
+        private final int hashCode;
+
+        DomainKey(String location, Certificate[] certificates)
+        {
+            this.location = location;
+            this.certificates = certificates;
+            this.hashCode = 31 * location.hashCode() + Arrays.hashCode(certificates);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof DomainKey)) return false;
+
+            DomainKey key = (DomainKey) o;
+
+            return location.equals(key.location) && Arrays.equals(certificates, key.certificates);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    /**
+     * A bounded set of names that could not be found by this loader.  The
+     * set is only valid for the wiring epoch in which its names were
+     * recorded, it is discarded as soon as the framework's wiring changes.
+     */
+    private static class MissCache
+    {
+        private final static int MAX_SIZE = 1024;
+        private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile long epoch;
+
+        boolean contains(String name, long current)
+        {
+            return current == epoch && names.contains(name);
+        }
+
+        /**
+         * Record a miss.
+         *
+         * @param name    the name that could not be found
+         * @param current the wiring epoch that was current when the search began
+         */
+        synchronized void add(String name, long current)
+        {
+            if (current < epoch) return;
+
+            if (current > epoch || names.size() >= MAX_SIZE)
+            {
+                names.clear();
+                epoch = current;
+            }
+
+            names.add(name);
+        }
+    }
 }
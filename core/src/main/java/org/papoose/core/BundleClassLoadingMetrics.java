@@ -0,0 +1,132 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The class loading metrics of a single bundle, accumulated across all its
+ * generations.  Times are in nanoseconds.
+ */
+public final class BundleClassLoadingMetrics
+{
+    private final long bundleId;
+    private final AtomicLong classesDefined = new AtomicLong();
+    private final AtomicLong bytesDefined = new AtomicLong();
+    private final AtomicLong defineTime = new AtomicLong();
+    private final AtomicLong wireDelegatedLoads = new AtomicLong();
+    private final AtomicLong classPathProbes = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong dynamicImportResolutions = new AtomicLong();
+    private final AtomicLong protectionDomainTime = new AtomicLong();
+
+    BundleClassLoadingMetrics(long bundleId)
+    {
+        this.bundleId = bundleId;
+    }
+
+    public long getBundleId()
+    {
+        return bundleId;
+    }
+
+    public long getClassesDefined()
+    {
+        return classesDefined.get();
+    }
+
+    public long getBytesDefined()
+    {
+        return bytesDefined.get();
+    }
+
+    public long getDefineTime()
+    {
+        return defineTime.get();
+    }
+
+    public long getWireDelegatedLoads()
+    {
+        return wireDelegatedLoads.get();
+    }
+
+    public long getClassPathProbes()
+    {
+        return classPathProbes.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getDynamicImportResolutions()
+    {
+        return dynamicImportResolutions.get();
+    }
+
+    public long getProtectionDomainTime()
+    {
+        return protectionDomainTime.get();
+    }
+
+    void classDefined(int bytes, long time)
+    {
+        classesDefined.incrementAndGet();
+        bytesDefined.addAndGet(bytes);
+        defineTime.addAndGet(time);
+    }
+
+    void wireDelegated()
+    {
+        wireDelegatedLoads.incrementAndGet();
+    }
+
+    void classPathProbed()
+    {
+        classPathProbes.incrementAndGet();
+    }
+
+    void missed()
+    {
+        misses.incrementAndGet();
+    }
+
+    void dynamicImportResolved()
+    {
+        dynamicImportResolutions.incrementAndGet();
+    }
+
+    void protectionDomainAssigned(long time)
+    {
+        protectionDomainTime.addAndGet(time);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + bundleId + " classes: " + getClassesDefined()
+               + " bytes: " + getBytesDefined()
+               + " define: " + getDefineTime()
+               + "ns wired: " + getWireDelegatedLoads()
+               + " probes: " + getClassPathProbes()
+               + " misses: " + getMisses()
+               + " dynamic: " + getDynamicImportResolutions()
+               + " domains: " + getProtectionDomainTime() + "ns]";
+    }
+}
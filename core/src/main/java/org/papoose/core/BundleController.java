@@ -970,23 +970,33 @@ public class BundleController implements Bundle
 
         try
         {
+            ServiceListenerWithFilter listener = new ServiceListenerWithFilter(serviceListener, filter);
+
             if (serviceListener instanceof AllServiceListener)
             {
                 if (allServiceListeners == null) allServiceListeners = new CopyOnWriteArraySet<ServiceListenerWithFilter>();
 
-                if (!allServiceListeners.add(new ServiceListenerWithFilter(serviceListener, filter)))
+                if (!allServiceListeners.add(listener))
                 {
                     LOGGER.warning("Listener collided with previously registered listener with filter " + filter);
                 }
+                else
+                {
+                    framework.getBundleManager().getServiceListenerIndex().add(this, listener, true);
+                }
             }
             else
             {
                 if (serviceListeners == null) serviceListeners = new CopyOnWriteArraySet<ServiceListenerWithFilter>();
 
-                if (!serviceListeners.add(new ServiceListenerWithFilter(serviceListener, filter)))
+                if (!serviceListeners.add(listener))
                 {
                     LOGGER.warning("Listener collided with previously registered listener with filter " + filter);
                 }
+                else
+                {
+                    framework.getBundleManager().getServiceListenerIndex().add(this, listener, false);
+                }
             }
         }
         finally
@@ -1011,6 +1021,8 @@ public class BundleController implements Bundle
             }
 
             if (serviceListeners != null) serviceListeners.remove(new ServiceListenerWithFilter(serviceListener, DefaultFilter.TRUE));
+
+            framework.getBundleManager().getServiceListenerIndex().remove(this, new ServiceListenerWithFilter(serviceListener));
         }
         finally
         {
@@ -1031,6 +1043,8 @@ public class BundleController implements Bundle
 
             if (serviceListeners != null) serviceListeners.clear();
             if (allServiceListeners != null) allServiceListeners.clear();
+
+            framework.getBundleManager().getServiceListenerIndex().remove(this);
         }
         finally
         {
@@ -28,6 +28,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -68,6 +70,9 @@ import org.papoose.core.util.SecurityUtils;
 public class BundleManager
 {
     private final static String CLASS_NAME = BundleManager.class.getName();
+    private final static int NOT_PERMITTED = 0;
+    private final static int PERMITTED = 1;
+    private final static int ASSIGNABLE = 2;
     private final Logger LOGGER = Logger.getLogger(CLASS_NAME);
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final Map<String, BundleController> locations = new HashMap<String, BundleController>();
@@ -77,6 +82,12 @@ public class BundleManager
     private final Store store;
     private volatile ProtectionDomainFactory protectionDomainFactory;
     private final AtomicLong bundleCounter = new AtomicLong(0);
+    private final ServiceListenerIndex serviceListenerIndex = new ServiceListenerIndex();
+    private final AtomicLong wiringEpoch = new AtomicLong(0);
+    private final AtomicLong permissionEpoch = new AtomicLong(0);
+    private volatile ClassLoadingProfiler classLoadingProfiler;
+    private volatile ClassLoadingMetricsImpl classLoadingMetrics;
+    private final ConcurrentMap<String, AtomicLong> exportersByPackage = new ConcurrentHashMap<String, AtomicLong>();
 
 
     public BundleManager(Papoose framework, Store store)
@@ -94,6 +105,8 @@ public class BundleManager
     void setProtectionDomainFactory(ProtectionDomainFactory protectionDomainFactory)
     {
         this.protectionDomainFactory = protectionDomainFactory;
+
+        permissionsChanged();
     }
 
     ProtectionDomainFactory getProtectionDomainFactory()
@@ -191,6 +204,131 @@ public class BundleManager
         throw new IOException("Unable to find archive store generation " + generationId + " for bundle " + bundleId);
     }
 
+    /**
+     * The wiring epoch is advanced each time the framework's wiring changes,
+     * i.e. when bundles are installed, resolved, uninstalled or refreshed
+     * and when dynamic imports are wired.  Anything derived from the wiring
+     * is only valid for the epoch in which it was computed.
+     *
+     * @return the current wiring epoch
+     */
+    public long getWiringEpoch()
+    {
+        return wiringEpoch.get();
+    }
+
+    public void wiringChanged()
+    {
+        wiringEpoch.incrementAndGet();
+    }
+
+    /**
+     * Obtain a count of the exporters of a package that have been made known
+     * to the resolver.  The count only ever increases, which allows a failed
+     * dynamic import to be cached until a new exporter of its package arrives.
+     *
+     * @param packageName the name of the package
+     * @return the number of exporters of the package added to the resolver
+     */
+    long getExporterCount(String packageName)
+    {
+        AtomicLong count = exportersByPackage.get(packageName);
+        return count == null ? 0 : count.get();
+    }
+
+    private void exportersAdded(Generation generation)
+    {
+        for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
+        {
+            for (String packageName : exportDescription.getPackageNames())
+            {
+                AtomicLong count = exportersByPackage.get(packageName);
+                if (count == null)
+                {
+                    AtomicLong existing = exportersByPackage.putIfAbsent(packageName, count = new AtomicLong(0));
+                    if (existing != null) count = existing;
+                }
+                count.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The permission epoch is advanced each time the permissions granted to
+     * bundles may have changed or a new protection domain factory has been
+     * set.  Protection domains are only reused within the epoch in which
+     * they were assigned.
+     *
+     * @return the current permission epoch
+     */
+    long getPermissionEpoch()
+    {
+        return permissionEpoch.get();
+    }
+
+    void permissionsChanged()
+    {
+        permissionEpoch.incrementAndGet();
+    }
+
+    ClassLoadingMetricsImpl getClassLoadingMetrics()
+    {
+        return classLoadingMetrics;
+    }
+
+    void setClassLoadingMetrics(ClassLoadingMetricsImpl classLoadingMetrics)
+    {
+        this.classLoadingMetrics = classLoadingMetrics;
+    }
+
+    void setClassLoadingProfiler(ClassLoadingProfiler classLoadingProfiler)
+    {
+        this.classLoadingProfiler = classLoadingProfiler;
+    }
+
+    /**
+     * Stop recording class loading profiles and save the ones recorded.
+     */
+    void saveClassLoadingProfiles()
+    {
+        ClassLoadingProfiler profiler = classLoadingProfiler;
+
+        if (profiler == null) return;
+
+        List<BundleController> bundles;
+        synchronized (installedBundles)
+        {
+            bundles = new ArrayList<BundleController>(installedBundles.values());
+        }
+
+        profiler.save(bundles);
+    }
+
+    /**
+     * Stop the class loading profiler, discarding any profile that is still
+     * being recorded.
+     */
+    void stopClassLoadingProfiler()
+    {
+        ClassLoadingProfiler profiler = classLoadingProfiler;
+        classLoadingProfiler = null;
+
+        if (profiler == null) return;
+
+        List<BundleController> bundles;
+        synchronized (installedBundles)
+        {
+            bundles = new ArrayList<BundleController>(installedBundles.values());
+        }
+
+        profiler.stop(bundles);
+    }
+
+    ServiceListenerIndex getServiceListenerIndex()
+    {
+        return serviceListenerIndex;
+    }
+
     public BundleController getBundle(long bundleId)
     {
         return installedBundles.get(bundleId);
@@ -237,6 +375,8 @@ public class BundleManager
                 installedBundles.put(systemBundleId, systemBundle);
 
                 framework.getResolver().added(systemBundle.getCurrentGeneration());
+                exportersAdded(systemBundle.getCurrentGeneration());
+                wiringChanged();
 
                 bundleStore.markModified();
 
@@ -328,6 +468,8 @@ public class BundleManager
                 installedBundles.put(bundleId, bundle);
 
                 framework.getResolver().added(generation);
+                exportersAdded(generation);
+                wiringChanged();
 
                 bundleStore.markModified();
 
@@ -398,6 +540,8 @@ public class BundleManager
             {
                 finishResolution(solution);
             }
+
+            fireResolvedEvents(solutions);
         }
         catch (BundleException be)
         {
@@ -407,6 +551,50 @@ public class BundleManager
         return true;
     }
 
+    /**
+     * Resolve a collection of bundles in a single pass of the resolver.
+     * Bundles that cannot be resolved are skipped and left in the
+     * <code>INSTALLED</code> state.
+     *
+     * @param targets the bundles to resolve
+     * @return true if all the bundles are resolved
+     */
+    public boolean resolve(Collection<? extends Bundle> targets)
+    {
+        Set<Generation> generations = new HashSet<Generation>();
+        for (Bundle target : targets)
+        {
+            if (target.getState() == Bundle.INSTALLED) generations.add(((BundleController) target).getCurrentGeneration());
+        }
+
+        if (!generations.isEmpty())
+        {
+            Set<Solution> solutions = framework.getResolver().resolve(generations);
+            Set<Solution> finished = new HashSet<Solution>();
+
+            for (Solution solution : solutions)
+            {
+                try
+                {
+                    finishResolution(solution);
+                    finished.add(solution);
+                }
+                catch (BundleException be)
+                {
+                    LOGGER.log(Level.WARNING, "Unable to resolve bundle " + solution.getBundle().getBundleController(), be);
+                }
+            }
+
+            fireResolvedEvents(finished);
+        }
+
+        for (Bundle target : targets)
+        {
+            if (target.getState() == Bundle.INSTALLED) return false;
+        }
+        return true;
+    }
+
     public Wire resolve(Bundle target, ImportDescription importDescription)
     {
         assert target != null;
@@ -422,6 +610,7 @@ public class BundleManager
 
             if (solutions.isEmpty()) return null;
 
+            Set<Solution> finished = new HashSet<Solution>();
             for (Solution solution : solutions)
             {
                 BundleGeneration solutionGeneration = solution.getBundle();
@@ -433,10 +622,17 @@ public class BundleManager
                 else
                 {
                     finishResolution(solution);
+                    finished.add(solution);
                 }
             }
 
+            fireResolvedEvents(finished);
+
             assert result != null;
+
+            framework.getServiceRegistry().invalidateAssignable(targetGeneration);
+
+            wiringChanged();
         }
         catch (BundleException be)
         {
@@ -526,7 +722,20 @@ public class BundleManager
 
         bundleGeneration.setState(Bundle.RESOLVED);
 
-        fireBundleEvent(new BundleEvent(BundleEvent.RESOLVED, bundleGeneration.getBundleController()));
+        wiringChanged();
+
+        ClassLoadingProfiler profiler = classLoadingProfiler;
+        if (profiler != null) profiler.resolved(bundleGeneration);
+    }
+
+    private void fireResolvedEvents(Set<Solution> solutions)
+    {
+        for (Solution solution : solutions)
+        {
+            BundleGeneration bundleGeneration = solution.getBundle();
+
+            if (bundleGeneration.getState() == Bundle.RESOLVED) fireBundleEvent(new BundleEvent(BundleEvent.RESOLVED, bundleGeneration.getBundleController()));
+        }
     }
 
     public void loadBundles()
@@ -571,6 +780,8 @@ public class BundleManager
                 locations.put(location, bundle);
                 installedBundles.put(bundleId, bundle);
                 framework.getResolver().added(generation);
+                exportersAdded(generation);
+                wiringChanged();
 
                 bundleStore.markModified();
 
@@ -874,6 +1085,7 @@ public class BundleManager
             for (Generation generation : unused)
             {
                 framework.getResolver().removed(generation);
+                framework.getServiceRegistry().invalidateAssignable(generation);
             }
 
             if (remove)
@@ -930,6 +1142,13 @@ public class BundleManager
 
             bundleGeneration.setState(Bundle.UNINSTALLED);
 
+            framework.getServiceRegistry().invalidateAssignable(bundleGeneration);
+
+            wiringChanged();
+
+            ClassLoadingMetricsImpl metrics = classLoadingMetrics;
+            if (metrics != null) metrics.remove(bundleController.getBundleId());
+
             fireBundleEvent(new BundleEvent(BundleEvent.UNINSTALLED, bundleController));
         }
         catch (InterruptedException ie)
@@ -1026,45 +1245,53 @@ public class BundleManager
         }
     }
 
+    /**
+     * Deliver a service event to the listeners whose filters can match one
+     * of the service's classes.  Each listener receives the event at most
+     * once.  The bundle that registered the listener must have permission
+     * to get the service under at least one of its classes and, unless the
+     * listener is an <code>AllServiceListener</code>, be class space
+     * consistent with the service for such a class.
+     *
+     * @param event the service event to deliver
+     */
     public void fireServiceEvent(ServiceEvent event)
     {
         ServiceReference reference = event.getServiceReference();
         String[] classes = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+        Map<BundleController, Integer> visibility = new HashMap<BundleController, Integer>();
 
-        for (BundleController bundle : installedBundles.values())
+        for (ServiceListenerIndex.Registration registration : serviceListenerIndex.lookup(classes))
         {
-            for (String clazz : classes)
-            {
-                if (!bundle.hasPermission(new ServicePermission(clazz, ServicePermission.GET))) continue;
+            BundleController bundle = registration.getBundle();
 
-                if (bundle.getAllServiceListeners() != null) fireServiceEvent(event, bundle.getAllServiceListeners(), bundle);
-
-                if (bundle.getServiceListeners() != null)
-                {
-                    if (reference.isAssignableTo(bundle, clazz)) fireServiceEvent(event, bundle.getServiceListeners(), bundle);
-                }
-            }
-        }
-    }
+            if (!isVisible(visibility, bundle, reference, classes, registration.isAll())) continue;
 
-    private void fireServiceEvent(ServiceEvent event, Set<ServiceListenerWithFilter> listeners, BundleController bundle)
-    {
-        for (final ServiceListenerWithFilter listener : listeners)
-        {
             try
             {
-                SecurityUtils.serviceEvent(listener, event, framework.getAcc());
+                SecurityUtils.serviceEvent(registration.getListener(), event, framework.getAcc());
             }
             catch (Throwable throwable)
             {
                 fireFrameworkEvent(new FrameworkEvent(FrameworkEvent.ERROR, bundle, throwable));
             }
         }
-        for (final ServiceListenerWithFilter listener : listeners)
+    }
+
+    public void fireModifiedServiceEvent(ServiceReference reference, Dictionary old)
+    {
+        String[] classes = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+        Map<BundleController, Integer> visibility = new HashMap<BundleController, Integer>();
+
+        for (ServiceListenerIndex.Registration registration : serviceListenerIndex.lookup(classes))
         {
+            BundleController bundle = registration.getBundle();
+
+            if (!isVisible(visibility, bundle, reference, classes, registration.isAll())) continue;
+
             try
             {
-                SecurityUtils.serviceEvent(listener, event, framework.getAcc());
+                SecurityUtils.modifiedServiceEvent(registration.getListener(), reference, old, framework.getAcc());
             }
             catch (Throwable throwable)
             {
@@ -1073,49 +1300,33 @@ public class BundleManager
         }
     }
 
-    public void fireModifiedServiceEvent(ServiceReference reference, Dictionary old)
+    /**
+     * Determine, once per bundle and event, whether a bundle's listeners may
+     * see a service.
+     */
+    private static boolean isVisible(Map<BundleController, Integer> visibility, BundleController bundle, ServiceReference reference, String[] classes, boolean all)
     {
-        String[] classes = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+        Integer value = visibility.get(bundle);
 
-        for (BundleController bundle : installedBundles.values())
+        if (value == null)
         {
+            value = NOT_PERMITTED;
             for (String clazz : classes)
             {
                 if (!bundle.hasPermission(new ServicePermission(clazz, ServicePermission.GET))) continue;
 
-                if (bundle.getAllServiceListeners() != null) fireModifiedServiceEvent(reference, old, bundle.getAllServiceListeners(), bundle);
-
-                if (!reference.isAssignableTo(bundle, clazz)) continue;
+                value = PERMITTED;
 
-                if (bundle.getServiceListeners() != null) fireModifiedServiceEvent(reference, old, bundle.getServiceListeners(), bundle);
+                if (reference.isAssignableTo(bundle, clazz))
+                {
+                    value = ASSIGNABLE;
+                    break;
+                }
             }
+            visibility.put(bundle, value);
         }
-    }
 
-    protected void fireModifiedServiceEvent(ServiceReference reference, Dictionary old, Set<ServiceListenerWithFilter> listeners, Bundle bundle)
-    {
-        for (final ServiceListenerWithFilter listener : listeners)
-        {
-            try
-            {
-                SecurityUtils.modifiedServiceEvent(listener, reference, old, framework.getAcc());
-            }
-            catch (Throwable throwable)
-            {
-                fireFrameworkEvent(new FrameworkEvent(FrameworkEvent.ERROR, bundle, throwable));
-            }
-        }
-        for (final ServiceListenerWithFilter listener : listeners)
-        {
-            try
-            {
-                SecurityUtils.modifiedServiceEvent(listener, reference, old, framework.getAcc());
-            }
-            catch (Throwable throwable)
-            {
-                fireFrameworkEvent(new FrameworkEvent(FrameworkEvent.ERROR, bundle, throwable));
-            }
-        }
+        return all ? value != NOT_PERMITTED : value == ASSIGNABLE;
     }
 
     public void readLock() throws InterruptedException
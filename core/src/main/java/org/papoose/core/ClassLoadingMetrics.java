@@ -0,0 +1,46 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core;
+
+import java.util.Set;
+
+
+/**
+ * A framework service that reports, per bundle, where class loading and
+ * resource lookup time is spent.  Bundle class loaders are only
+ * instrumented while this service is registered.
+ */
+public interface ClassLoadingMetrics
+{
+    /**
+     * @return the ids of the bundles for which metrics have been collected
+     */
+    Set<Long> getBundleIds();
+
+    /**
+     * Obtain the metrics collected for a bundle.
+     *
+     * @param bundleId the id of the bundle
+     * @return the metrics collected for the bundle or null if none have been collected
+     */
+    BundleClassLoadingMetrics getMetrics(long bundleId);
+
+    /**
+     * Discard all the metrics collected so far.
+     */
+    void reset();
+}
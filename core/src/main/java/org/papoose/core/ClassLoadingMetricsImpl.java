@@ -0,0 +1,91 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+
+/**
+ * A boot level service that turns on the instrumentation of bundle class
+ * loaders and registers the collected metrics as a
+ * {@link ClassLoadingMetrics} service.
+ */
+public class ClassLoadingMetricsImpl implements ClassLoadingMetrics
+{
+    private final ConcurrentMap<Long, BundleClassLoadingMetrics> metrics = new ConcurrentHashMap<Long, BundleClassLoadingMetrics>();
+    private Papoose framework;
+    private ServiceRegistration registration;
+
+    public void start(Papoose framework)
+    {
+        this.framework = framework;
+
+        framework.getBundleManager().setClassLoadingMetrics(this);
+
+        BundleContext context = framework.getSystemBundleContext();
+
+        registration = context.registerService(ClassLoadingMetrics.class.getName(), this, null);
+    }
+
+    public void stop()
+    {
+        registration.unregister();
+
+        framework.getBundleManager().setClassLoadingMetrics(null);
+
+        registration = null;
+        framework = null;
+    }
+
+    public Set<Long> getBundleIds()
+    {
+        return Collections.unmodifiableSet(new HashSet<Long>(metrics.keySet()));
+    }
+
+    public BundleClassLoadingMetrics getMetrics(long bundleId)
+    {
+        return metrics.get(bundleId);
+    }
+
+    public void reset()
+    {
+        metrics.clear();
+    }
+
+    BundleClassLoadingMetrics obtain(long bundleId)
+    {
+        BundleClassLoadingMetrics result = metrics.get(bundleId);
+        if (result == null)
+        {
+            BundleClassLoadingMetrics existing = metrics.putIfAbsent(bundleId, result = new BundleClassLoadingMetrics(bundleId));
+            if (existing != null) result = existing;
+        }
+        return result;
+    }
+
+    void remove(long bundleId)
+    {
+        metrics.remove(bundleId);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.osgi.framework.BundleException;
+
+import org.papoose.core.spi.ArchiveStore;
+import org.papoose.core.spi.BundleStore;
+
+
+/**
+ * Records the classes that each bundle generation defines while the
+ * framework starts and saves them in the generation's bundle store.  On the
+ * next start, as soon as a generation is resolved, the recorded classes are
+ * preloaded on a bounded pool of worker threads.
+ * <p/>
+ * Bundles with a lazy activation policy are neither recorded nor preloaded.
+ */
+class ClassLoadingProfiler
+{
+    private final static String CLASS_NAME = ClassLoadingProfiler.class.getName();
+    private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
+    private final ThreadPoolExecutor executor;
+    private volatile boolean recording = true;
+
+    ClassLoadingProfiler(int threads)
+    {
+        assert threads > 0;
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Called when a bundle generation has been resolved and has been given
+     * its class loader.
+     *
+     * @param bundleGeneration the resolved bundle generation
+     * @return the future number of classes preloaded or null if there is nothing to preload
+     */
+    Future<Integer> resolved(BundleGeneration bundleGeneration)
+    {
+        ArchiveStore archiveStore = bundleGeneration.getArchiveStore();
+
+        if (archiveStore.getLazyActivationDescription().isLazyActivation()) return null;
+
+        final BundleClassLoader classLoader = bundleGeneration.getClassLoader();
+
+        if (recording) classLoader.startProfile();
+
+        final String key = generateKey(archiveStore);
+        final List<String> classNames = bundleGeneration.getBundleController().getBundleStore().loadClassProfile(key);
+
+        if (classNames.isEmpty()) return null;
+
+        return executor.submit(new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                int count = classLoader.preload(classNames);
+
+                if (LOGGER.isLoggable(Level.FINEST)) LOGGER.finest("Preloaded " + count + " of " + classNames.size() + " classes for " + key);
+
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Stop recording and save the profiles that were recorded.
+     *
+     * @param bundles the bundles whose profiles are to be saved
+     */
+    void save(Collection<BundleController> bundles)
+    {
+        recording = false;
+
+        for (BundleController bundle : bundles)
+        {
+            Generation generation = bundle.getCurrentGeneration();
+
+            if (!(generation instanceof BundleGeneration)) continue;
+
+            BundleGeneration bundleGeneration = (BundleGeneration) generation;
+            BundleClassLoader classLoader = bundleGeneration.getClassLoader();
+
+            if (classLoader == null) continue;
+
+            List<String> classNames = classLoader.stopProfile();
+
+            if (classNames == null) continue;
+
+            BundleStore bundleStore = bundle.getBundleStore();
+            try
+            {
+                bundleStore.saveClassProfile(generateKey(bundleGeneration.getArchiveStore()), classNames);
+            }
+            catch (BundleException be)
+            {
+                LOGGER.log(Level.WARNING, "Unable to save class profile for " + bundle, be);
+            }
+        }
+    }
+
+    /**
+     * Stop recording and preloading, discarding the profiles that were
+     * being recorded.
+     *
+     * @param bundles the bundles whose recordings are to be discarded
+     */
+    void stop(Collection<BundleController> bundles)
+    {
+        recording = false;
+        executor.shutdownNow();
+
+        for (BundleController bundle : bundles)
+        {
+            Generation generation = bundle.getCurrentGeneration();
+
+            if (!(generation instanceof BundleGeneration)) continue;
+
+            BundleClassLoader classLoader = ((BundleGeneration) generation).getClassLoader();
+
+            if (classLoader != null) classLoader.stopProfile();
+        }
+    }
+
+    private static String generateKey(ArchiveStore archiveStore)
+    {
+        return archiveStore.getBundleSymbolicName() + ";" + archiveStore.getBundleVersion() + ";" + archiveStore.getGeneration();
+    }
+}
@@ -16,16 +16,14 @@
  */
 package org.papoose.core;
 
-import java.util.Collections;
 import java.util.Dictionary;
-import java.util.Enumeration;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Hashtable;
 
 import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceReference;
 
 import org.papoose.core.filter.Expr;
+import org.papoose.core.util.CaseInsensitiveDictionary;
 
 
 /**
@@ -76,63 +74,27 @@ public class DefaultFilter implements Filter
         this.expr = expr;
     }
 
-    public boolean match(ServiceReference serviceReference)
+    Expr getExpr()
     {
-        return match(((ServiceRegistrationImpl.ServiceReferenceImpl) serviceReference).getProperties());
+        return expr;
     }
 
-    public boolean match(final Dictionary dictionary)
+    public boolean match(ServiceReference serviceReference)
     {
-        Dictionary<String, Object> caseInsensitive = new Dictionary<String, Object>()
+        if (serviceReference instanceof ServiceRegistrationImpl.ServiceReferenceImpl)
         {
-            final Map<String, Object> map = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
-
-            {
-                for (Enumeration enumeration = dictionary.keys(); enumeration.hasMoreElements();)
-                {
-                    Object key = enumeration.nextElement();
-                    map.put(key.toString(), dictionary.get(key));
-                }
-            }
-
-            public int size()
-            {
-                return map.size();
-            }
-
-            public boolean isEmpty()
-            {
-                return map.isEmpty();
-            }
-
-            public Enumeration<String> keys()
-            {
-                return Collections.enumeration(map.keySet());
-            }
-
-            public Enumeration<Object> elements()
-            {
-                return Collections.enumeration(map.values());
-            }
-
-            @SuppressWarnings({ "SuspiciousMethodCalls" })
-            public Object get(Object key)
-            {
-                return map.get(key);
-            }
-
-            public Object put(String key, Object value)
-            {
-                throw new UnsupportedOperationException();
-            }
-
-            public Object remove(Object key)
-            {
-                throw new UnsupportedOperationException();
-            }
-        };
-
-        return expr.match(caseInsensitive);
+            return expr.match(((ServiceRegistrationImpl.ServiceReferenceImpl) serviceReference).getCaseInsensitiveProperties());
+        }
+
+        Dictionary<String, Object> dictionary = new Hashtable<String, Object>();
+        for (String key : serviceReference.getPropertyKeys()) dictionary.put(key, serviceReference.getProperty(key));
+
+        return match(dictionary);
+    }
+
+    public boolean match(Dictionary dictionary)
+    {
+        return expr.match(new CaseInsensitiveDictionary(dictionary));
     }
 
     @SuppressWarnings({ "unchecked" })
@@ -24,6 +24,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
@@ -51,6 +52,7 @@ import org.papoose.core.spi.Resolver;
 import org.papoose.core.spi.StartManager;
 import org.papoose.core.spi.Store;
 import org.papoose.core.spi.TrustManager;
+import org.papoose.core.util.PackageTrie;
 import org.papoose.core.util.Util;
 
 
@@ -85,6 +87,7 @@ public final class Papoose
     private volatile StartManager startManager;
     private volatile int startLevel;
     private volatile String[] bootDelegates;
+    private volatile PackageTrie bootDelegation;
     private volatile Parser parser = new Parser();
     private volatile TrustManager trustManager = new DefaultTrustManager();
     private volatile Resolver resolver = new DefaultResolver();
@@ -313,6 +316,14 @@ public final class Papoose
         return result;
     }
 
+    /**
+     * @return the boot delegation packages compiled for a single lookup
+     */
+    public PackageTrie getBootDelegation()
+    {
+        return bootDelegation;
+    }
+
     /**
      * Get the filter parser that this framework instances uses.
      *
@@ -570,12 +581,19 @@ public final class Papoose
                 if (bootDelegates[i].endsWith(".*")) bootDelegates[i] = bootDelegates[i].substring(0, bootDelegates[i].length() - 1);
             }
 
+            bootDelegation = new PackageTrie(bootDelegateString.split(","));
+
             manager.getStore().start();
 
             resolver.start(Papoose.this);
 
             serviceRegistry.start();
 
+            if (Boolean.valueOf(properties.getProperty(PapooseConstants.PAPOOSE_FRAMEWORK_CLASS_PROFILE)))
+            {
+                manager.setClassLoadingProfiler(new ClassLoadingProfiler(obtainClassProfileThreads()));
+            }
+
             SystemBundleController systemBundleController = (SystemBundleController) manager.installSystemBundle(new Version(properties.getProperty(PapooseConstants.PAPOOSE_VERSION)));
 
             startBootLevelServices();
@@ -593,15 +611,49 @@ public final class Papoose
 
     private void doStart() throws PapooseException
     {
-        startManager.setStartLevel(startLevel);
+        try
+        {
+            // resolving every installed bundle in one batch is opt-in, otherwise bundles are resolved as they are started
+            if (Boolean.valueOf(properties.getProperty(PapooseConstants.PAPOOSE_FRAMEWORK_RESOLVE_ON_START)))
+            {
+                bundleManager.resolve(Arrays.asList(bundleManager.getBundles()));
+            }
+
+            startManager.setStartLevel(startLevel);
+        }
+        finally
+        {
+            bundleManager.saveClassLoadingProfiles();
+        }
     }
 
     private void doStop() throws PapooseException
     {
+        bundleManager.stopClassLoadingProfiler();
         startManager.setStartLevel(0);
         serviceRegistry.stop();
     }
 
+    private int obtainClassProfileThreads()
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String threadsValue = properties.getProperty(PapooseConstants.PAPOOSE_FRAMEWORK_CLASS_PROFILE_THREADS);
+
+        if (threadsValue != null)
+        {
+            try
+            {
+                threads = Integer.parseInt(threadsValue);
+            }
+            catch (NumberFormatException nfe)
+            {
+                LOGGER.log(Level.WARNING, "Unable to parse " + PapooseConstants.PAPOOSE_FRAMEWORK_CLASS_PROFILE_THREADS + " value " + threadsValue, nfe);
+            }
+        }
+
+        return Math.max(1, threads);
+    }
+
     @Override
     public String toString()
     {
@@ -34,12 +34,18 @@ public final class PapooseConstants
     public final static String PAPOOSE_SERVICE_URL_HANDLERS = "org.papoose.service.boot.urlHandlers";
     public final static String PAPOOSE_SERVICE_CND_PERM_ADMIN = "org.papoose.service.boot.conditionalPermissionAdmin";
     public final static String PAPOOSE_SERVICE_PERM_ADMIN = "org.papoose.service.boot.permissionAdmin";
+    public final static String PAPOOSE_SERVICE_CLASS_LOADING_METRICS = "org.papoose.service.boot.classLoadingMetrics";
 
     public final static String PAPOOSE_FRAMEWORK_START_LEVEL = "org.osgi.framework.startlevel.beginning";
 
     public final static String PAPOOSE_FRAMEWORK_NAME = "org.papoose.framework.name";
     public final static String PAPOOSE_FRAMEWORK_STORE_TYPE = "org.papoose.framework.store.type";
     public final static String PAPOOSE_FRAMEWORK_THREADPOOL_SIZE = "org.papoose.framework.threadpool.size";
+    public final static String PAPOOSE_FRAMEWORK_SERVICE_INDEXES = "org.papoose.framework.service.indexes";
+    public final static String PAPOOSE_FRAMEWORK_CLASS_PROFILE = "org.papoose.framework.class.profile";
+    public final static String PAPOOSE_FRAMEWORK_CLASS_PROFILE_THREADS = "org.papoose.framework.class.profile.threads";
+    public final static String PAPOOSE_FRAMEWORK_RESOLVER_THREADS = "org.papoose.framework.resolver.threads";
+    public final static String PAPOOSE_FRAMEWORK_RESOLVE_ON_START = "org.papoose.framework.resolve.on.start";
 
     private PapooseConstants() {}
 }
@@ -0,0 +1,187 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+
+import org.papoose.core.filter.ExprUtils;
+
+
+/**
+ * A framework wide index of service listeners, keyed by the
+ * <code>objectClass</code> values that their filters require.  Listeners
+ * whose filter does not constrain <code>objectClass</code> are kept in a
+ * wildcard bucket that is consulted for every event.
+ */
+class ServiceListenerIndex
+{
+    private final Map<Registration, Registration> registrations = new ConcurrentHashMap<Registration, Registration>();
+    private final Map<String, Set<Registration>> indexByClass = new ConcurrentHashMap<String, Set<Registration>>();
+    private final Set<Registration> wildcard = new CopyOnWriteArraySet<Registration>();
+
+    public synchronized void add(BundleController bundle, ServiceListenerWithFilter listener, boolean all)
+    {
+        Registration registration = new Registration(bundle, listener, all, obtainClasses(listener.getFilter()));
+
+        remove(registration);
+
+        registrations.put(registration, registration);
+
+        if (registration.classes == null)
+        {
+            wildcard.add(registration);
+        }
+        else
+        {
+            for (String clazz : registration.classes)
+            {
+                Set<Registration> bucket = indexByClass.get(clazz);
+                if (bucket == null) indexByClass.put(clazz, bucket = new CopyOnWriteArraySet<Registration>());
+
+                bucket.add(registration);
+            }
+        }
+    }
+
+    public synchronized void remove(BundleController bundle, ServiceListenerWithFilter listener)
+    {
+        remove(new Registration(bundle, listener, false, null));
+    }
+
+    public synchronized void remove(BundleController bundle)
+    {
+        for (Registration registration : registrations.keySet())
+        {
+            if (registration.bundle == bundle) remove(registration);
+        }
+    }
+
+    /**
+     * Obtain the listeners that may be interested in an event for a service
+     * registered under the given classes.  Each listener appears once.
+     *
+     * @param classes the <code>objectClass</code> values of the service
+     * @return the candidate listeners, the wildcard listeners first
+     */
+    public Collection<Registration> lookup(String[] classes)
+    {
+        Set<Registration> result = new LinkedHashSet<Registration>(wildcard);
+
+        for (String clazz : classes)
+        {
+            Set<Registration> bucket = indexByClass.get(clazz);
+            if (bucket != null) result.addAll(bucket);
+        }
+
+        return result;
+    }
+
+    private void remove(Registration key)
+    {
+        assert Thread.holdsLock(this);
+
+        Registration registration = registrations.remove(key);
+
+        if (registration == null) return;
+
+        if (registration.classes == null)
+        {
+            wildcard.remove(registration);
+        }
+        else
+        {
+            for (String clazz : registration.classes)
+            {
+                Set<Registration> bucket = indexByClass.get(clazz);
+                if (bucket == null) continue;
+
+                bucket.remove(registration);
+
+                if (bucket.isEmpty()) indexByClass.remove(clazz);
+            }
+        }
+    }
+
+    private static Set<String> obtainClasses(Filter filter)
+    {
+        if (!(filter instanceof DefaultFilter)) return null;
+
+        return ExprUtils.collectValues(((DefaultFilter) filter).getExpr(), Constants.OBJECTCLASS);
+    }
+
+    static class Registration
+    {
+        private final BundleController bundle;
+        private final ServiceListenerWithFilter listener;
+        private final boolean all;
+        private final Set<String> classes;
+
+        private Registration(BundleController bundle, ServiceListenerWithFilter listener, boolean all, Set<String> classes)
+        {
+            assert bundle != null;
+            assert listener != null;
+
+            this.bundle = bundle;
+            this.listener = listener;
+            this.all = all;
+            this.classes = classes;
+        }
+
+        public BundleController getBundle()
+        {
+            return bundle;
+        }
+
+        public ServiceListenerWithFilter getListener()
+        {
+            return listener;
+        }
+
+        /**
+         * @return true if the listener is an <code>AllServiceListener</code>
+         */
+        public boolean isAll()
+        {
+            return all;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Registration that = (Registration) o;
+
+            return bundle == that.bundle && listener.equals(that.listener);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(bundle) + listener.hashCode();
+        }
+    }
+}
@@ -29,6 +29,8 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 
+import org.papoose.core.util.CaseInsensitiveDictionary;
+
 
 /**
  *
@@ -38,6 +40,7 @@ public final class ServiceRegistrationImpl implements ServiceRegistration
     private final Dictionary<String, Object> properties;
     private final long serviceId;
     private final WeakReference<ServiceRegistry> serviceRegistry;
+    private volatile Dictionary<String, Object> caseInsensitiveProperties;
 
     public ServiceRegistrationImpl(Dictionary<String, Object> properties, ServiceRegistry serviceRegistry)
     {
@@ -48,6 +51,7 @@ public final class ServiceRegistrationImpl implements ServiceRegistration
         this.properties = properties;
         this.serviceId = (Long) properties.get(Constants.SERVICE_ID);
         this.serviceRegistry = new WeakReference<ServiceRegistry>(serviceRegistry);
+        this.caseInsensitiveProperties = new CaseInsensitiveDictionary(properties);
     }
 
     /**
@@ -103,6 +107,8 @@ public final class ServiceRegistrationImpl implements ServiceRegistration
             }
             if (this.properties.get(Constants.SERVICE_RANKING) == null) this.properties.put(Constants.SERVICE_RANKING, 0);
 
+            caseInsensitiveProperties = new CaseInsensitiveDictionary(this.properties);
+
             pinnedRegistry.setProperties(serviceId, old);
         }
         finally
@@ -189,6 +195,14 @@ public final class ServiceRegistrationImpl implements ServiceRegistration
             return properties;
         }
 
+        /**
+         * @return an immutable, case insensitive, view of the properties that is rebuilt each time they are set
+         */
+        Dictionary<String, Object> getCaseInsensitiveProperties()
+        {
+            return caseInsensitiveProperties;
+        }
+
         long getServiceId()
         {
             return serviceId;
@@ -16,19 +16,22 @@
  */
 package org.papoose.core;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.osgi.framework.Bundle;
@@ -42,6 +45,7 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 
 import org.papoose.core.filter.Expr;
+import org.papoose.core.filter.ExprUtils;
 import org.papoose.core.util.ClassUtils;
 import org.papoose.core.util.SecurityUtils;
 
@@ -53,8 +57,17 @@ class ServiceRegistry
 {
     private final static String CLASS_NAME = ServiceRegistry.class.getName();
     private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
+    private final static ServiceEntry[] EMPTY = new ServiceEntry[0];
     private final Object lock = new Object();
-    private final Map<Long, ServiceEntry> serviceEntries = new HashMap<Long, ServiceEntry>();
+    private final Map<Long, ServiceEntry> serviceEntries = new ConcurrentHashMap<Long, ServiceEntry>();
+    private volatile ServiceEntry[] allEntries = EMPTY;
+    private final Map<String, ServiceEntry[]> indexByClass = new ConcurrentHashMap<String, ServiceEntry[]>();
+    private final Map<String, Map<String, ServiceEntry[]>> indexByAttribute = new ConcurrentHashMap<String, Map<String, ServiceEntry[]>>();
+    private final Map<String, ServiceEntry[]> unindexableByAttribute = new ConcurrentHashMap<String, ServiceEntry[]>();
+    private final Map<BundleController, Set<ServiceEntry>> registrationsByBundle = new HashMap<BundleController, Set<ServiceEntry>>();
+    private final Map<BundleController, Set<ServiceEntry>> usagesByBundle = new HashMap<BundleController, Set<ServiceEntry>>();
+    private final Map<AssignableKey, Boolean> assignableCache = new ConcurrentHashMap<AssignableKey, Boolean>();
+    private volatile Set<String> indexedAttributes = Collections.singleton(Constants.SERVICE_PID.toLowerCase());
     private final ThreadLocal<ServiceEntry> removing = new ThreadLocal<ServiceEntry>();
     private final Papoose framework;
     private long lastServiceId;
@@ -69,6 +82,23 @@ class ServiceRegistry
     public void start()
     {
         lastServiceId = 0;
+
+        Set<String> attributes = new HashSet<String>();
+        attributes.add(Constants.SERVICE_PID.toLowerCase());
+
+        String keys = (String) framework.getProperty(PapooseConstants.PAPOOSE_FRAMEWORK_SERVICE_INDEXES);
+        if (keys != null)
+        {
+            for (String key : keys.split(","))
+            {
+                key = key.trim();
+                if (key.length() > 0) attributes.add(key.toLowerCase());
+            }
+        }
+
+        LOGGER.finest("Indexed service attributes " + attributes);
+
+        indexedAttributes = attributes;
     }
 
     public void stop()
@@ -77,44 +107,32 @@ class ServiceRegistry
 
     public void validate(long serviceId)
     {
-        synchronized (lock)
-        {
-            if (!serviceEntries.containsKey(serviceId)) throw new IllegalStateException("Service removed");
-        }
+        if (!serviceEntries.containsKey(serviceId)) throw new IllegalStateException("Service removed");
     }
 
     public Bundle getBundle(long serviceId)
     {
-        synchronized (lock)
-        {
-            ServiceEntry entry = serviceEntries.get(serviceId);
+        ServiceEntry entry = serviceEntries.get(serviceId);
 
-            if (entry != null)
-            {
-                return entry.getBundle();
-            }
-            else
-            {
-                return null;
-            }
+        if (entry != null)
+        {
+            return entry.getBundle();
+        }
+        else
+        {
+            return null;
         }
     }
 
     public Bundle[] getUsingBundles(long serviceId)
     {
-        synchronized (lock)
-        {
-            Map<BundleController, BundleServiceReference> map = serviceEntries.get(serviceId).getUsingBundles();
+        ServiceEntry entry = serviceEntries.get(serviceId);
 
-            if (map.isEmpty())
-            {
-                return null;
-            }
-            else
-            {
-                return map.keySet().toArray(new Bundle[map.keySet().size()]);
-            }
-        }
+        if (entry == null) return null;
+
+        Bundle[] bundles = entry.getUsingBundles().keySet().toArray(new Bundle[0]);
+
+        return bundles.length == 0 ? null : bundles;
     }
 
     public boolean isAssignableTo(long serviceId, Bundle thatBundle, String className)
@@ -129,109 +147,153 @@ class ServiceRegistry
 
         if (packageName.startsWith("java.")) return true;
 
-        for (String delegate : framework.getBootDelegates())
+        if (framework.getBootDelegation().matches(packageName)) return true;
+
+        ServiceEntry serviceEntry = serviceEntries.get(serviceId);
+        if (serviceEntry == null) serviceEntry = removing.get();
+        if (serviceEntry == null) return false;
+
+        BundleController registeringBundleController = serviceEntry.getBundle();
+
+        if (registeringBundleController == requestingBundleController) return true;
+
+        Generation requestingGeneration = requestingBundleController.getCurrentGeneration();
+        Generation registeringGeneration = registeringBundleController.getCurrentGeneration();
+        AssignableKey key = new AssignableKey(requestingGeneration, registeringGeneration, packageName);
+
+        Boolean cached = assignableCache.get(key);
+        if (cached != null) return cached;
+
+        boolean result = checkAssignable(requestingBundleController, registeringBundleController, className, packageName);
+
+        if (isWired(requestingGeneration) && isWired(registeringGeneration)) assignableCache.put(key, result);
+
+        return result;
+    }
+
+    /**
+     * Discard the cached class space consistency decisions that involve a
+     * generation.  Called when the generation is unresolved, refreshed or
+     * when a dynamic wire is added to it.
+     *
+     * @param generation the generation whose wiring has changed
+     */
+    public void invalidateAssignable(Generation generation)
+    {
+        for (Iterator<AssignableKey> iterator = assignableCache.keySet().iterator(); iterator.hasNext();)
         {
-            if ((delegate.endsWith(".") && packageName.regionMatches(0, delegate, 0, delegate.length() - 1)) || packageName.equals(delegate))
-            {
-                return true;
-            }
+            AssignableKey key = iterator.next();
+            if (key.requesting == generation || key.registering == generation) iterator.remove();
         }
+    }
 
-        synchronized (lock)
-        {
-            ServiceEntry serviceEntry = serviceEntries.get(serviceId);
-            if (serviceEntry == null) serviceEntry = removing.get();
-            BundleController registeringBundleController = serviceEntry.getBundle();
+    /**
+     * Discard all the cached class space consistency decisions.
+     */
+    public void invalidateAssignable()
+    {
+        assignableCache.clear();
+    }
 
-            if (registeringBundleController == requestingBundleController) return true;
+    /**
+     * Decisions can only be cached once the generation has a class loader,
+     * prior to that the answer defaults to being assignable.
+     */
+    private static boolean isWired(Generation generation)
+    {
+        if (generation instanceof FragmentGeneration) generation = ((FragmentGeneration) generation).getHost();
 
-            BundleClassLoader requestingClassLoader = obtainSource(requestingBundleController, packageName);
+        return generation instanceof BundleGeneration && ((BundleGeneration) generation).getClassLoader() != null;
+    }
 
-            BundleClassLoader registeringClassLoader = obtainSource(registeringBundleController, packageName);
+    private static boolean checkAssignable(BundleController requestingBundleController, BundleController registeringBundleController, String className, String packageName)
+    {
+        BundleClassLoader requestingClassLoader = obtainSource(requestingBundleController, packageName);
+
+        BundleClassLoader registeringClassLoader = obtainSource(registeringBundleController, packageName);
 
-            if (requestingClassLoader == null && registeringClassLoader == null)
+        if (requestingClassLoader == null && registeringClassLoader == null)
+        {
+            try
             {
-                try
-                {
-                    BundleClassLoader reqbcl = obtainClassLoader(requestingBundleController);
-                    if (reqbcl == null) return true;
-                    Class reqc = reqbcl.delegateLoadClass(className);
+                BundleClassLoader reqbcl = obtainClassLoader(requestingBundleController);
+                if (reqbcl == null) return true;
+                Class reqc = reqbcl.delegateLoadClass(className);
 
-                    BundleClassLoader regbcl = obtainClassLoader(registeringBundleController);
-                    if (regbcl == null) return true;
-                    Class regc = regbcl.delegateLoadClass(className);
+                BundleClassLoader regbcl = obtainClassLoader(registeringBundleController);
+                if (regbcl == null) return true;
+                Class regc = regbcl.delegateLoadClass(className);
 
-                    return reqc == regc;
-                }
-                catch (ClassNotFoundException e)
-                {
-                    return true;
-                }
+                return reqc == regc;
             }
-            else if (requestingClassLoader == null)
+            catch (ClassNotFoundException e)
             {
-                if (obtainClassLoader(requestingBundleController) == registeringClassLoader)
-                {
-                    return true;
-                }
-                else
+                return true;
+            }
+        }
+        else if (requestingClassLoader == null)
+        {
+            if (obtainClassLoader(requestingBundleController) == registeringClassLoader)
+            {
+                return true;
+            }
+            else
+            {
+                try
                 {
+                    BundleClassLoader reqbcl = obtainClassLoader(requestingBundleController);
+                    Class reqc = reqbcl.delegateLoadClass(className);
                     try
                     {
-                        BundleClassLoader reqbcl = obtainClassLoader(requestingBundleController);
-                        Class reqc = reqbcl.delegateLoadClass(className);
-                        try
-                        {
-                            BundleClassLoader regbcl = obtainClassLoader(registeringBundleController);
-                            Class regc = regbcl.delegateLoadClass(className);
+                        BundleClassLoader regbcl = obtainClassLoader(registeringBundleController);
+                        Class regc = regbcl.delegateLoadClass(className);
 
-                            return reqc == regc;
-                        }
-                        catch (ClassNotFoundException e)
-                        {
-                            return false;
-                        }
+                        return reqc == regc;
                     }
                     catch (ClassNotFoundException e)
                     {
-                        return true;
+                        return false;
                     }
                 }
-            }
-            else if (registeringClassLoader == null)
-            {
-                if (requestingClassLoader == obtainClassLoader(registeringBundleController))
+                catch (ClassNotFoundException e)
                 {
                     return true;
                 }
-                else
+            }
+        }
+        else if (registeringClassLoader == null)
+        {
+            if (requestingClassLoader == obtainClassLoader(registeringBundleController))
+            {
+                return true;
+            }
+            else
+            {
+                try
                 {
+                    BundleClassLoader regbcl = obtainClassLoader(registeringBundleController);
+                    Class regc = regbcl.delegateLoadClass(className);
                     try
                     {
-                        BundleClassLoader regbcl = obtainClassLoader(registeringBundleController);
-                        Class regc = regbcl.delegateLoadClass(className);
-                        try
-                        {
-                            Class reqc = requestingClassLoader.delegateLoadClass(className);
+                        Class reqc = requestingClassLoader.delegateLoadClass(className);
 
-                            return reqc == regc;
-                        }
-                        catch (ClassNotFoundException e)
-                        {
-                            return false;
-                        }
+                        return reqc == regc;
                     }
                     catch (ClassNotFoundException e)
                     {
-                        return true;
+                        return false;
                     }
                 }
-            }
-            else
-            {
-                return requestingClassLoader == registeringClassLoader;
+                catch (ClassNotFoundException e)
+                {
+                    return true;
+                }
             }
         }
+        else
+        {
+            return requestingClassLoader == registeringClassLoader;
+        }
     }
 
     private static BundleClassLoader obtainSource(BundleController bundle, String packageName)
@@ -328,7 +390,12 @@ class ServiceRegistry
 
             serviceRegistration = new ServiceRegistrationImpl(p, this);
 
-            serviceEntries.put(serviceId, new ServiceEntry(serviceRegistration, bundleController, service));
+            ServiceEntry entry = new ServiceEntry(serviceRegistration, bundleController, service, serviceId, (Integer) p.get(Constants.SERVICE_RANKING));
+
+            serviceEntries.put(serviceId, entry);
+            index(entry, c);
+            indexAttributes(entry, p);
+            addToBundleIndex(registrationsByBundle, bundleController, entry);
         }
 
         framework.getBundleManager().fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, serviceRegistration.getReference()));
@@ -338,166 +405,175 @@ class ServiceRegistry
         return serviceRegistration;
     }
 
+    /**
+     * Readers do not acquire the registry lock.  They iterate over the
+     * immutable, ranking ordered, snapshot of entries that was last published
+     * by a writer.
+     */
     public ServiceReference[] getServiceReferences(BundleController bundleController, String clazz, String filterString) throws InvalidSyntaxException
     {
-        synchronized (lock)
+        assert bundleController != null;
+
+        Expr expr = (filterString == null ? null : framework.getParser().parse(filterString));
+        DefaultFilter filter = (expr == null ? null : new DefaultFilter(expr));
+        List<ServiceReference> result = new ArrayList<ServiceReference>();
+
+        for (ServiceEntry entry : obtainCandidates(clazz, expr))
         {
-            DefaultFilter filter = (filterString == null ? null : new DefaultFilter(framework.getParser().parse(filterString)));
-            List<ServiceReference> result = new ArrayList<ServiceReference>();
+            ServiceRegistrationImpl.ServiceReferenceImpl reference = (ServiceRegistrationImpl.ServiceReferenceImpl) entry.getRegistration().getReference();
 
-            for (ServiceEntry entry : serviceEntries.values())
-            {
-                ServiceRegistrationImpl registration = entry.getRegistration();
-                ServiceRegistrationImpl.ServiceReferenceImpl reference = (ServiceRegistrationImpl.ServiceReferenceImpl) registration.getReference();
-                Dictionary<String, Object> p = reference.getProperties();
+            if (isVisible(bundleController, reference, clazz, filter)) result.add(reference);
+        }
 
-                boolean found = true;
-                if (clazz != null)
-                {
-                    found = false;
-                    for (String objectClass : (String[]) p.get(Constants.OBJECTCLASS))
-                    {
-                        if (objectClass.equals(clazz))
-                        {
-                            found = true;
-                            break;
-                        }
-                    }
-                }
-                if (!found) continue;
+        return result.isEmpty() ? null : result.toArray(new ServiceReference[result.size()]);
+    }
 
-                boolean secure = true;
-                for (String objectClass : (String[]) p.get(Constants.OBJECTCLASS))
-                {
-                    try
-                    {
-                        SecurityUtils.checkServicePermission(objectClass, ServicePermission.GET);
-                    }
-                    catch (SecurityException e)
-                    {
-                        secure = false;
-                        break;
-                    }
-                }
-                if (!secure) continue;
+    public ServiceReference[] getAllServiceReferences(String clazz, String filter) throws InvalidSyntaxException
+    {
+        Expr expr = (filter == null ? null : framework.getParser().parse(filter));
+        List<ServiceReference> result = new ArrayList<ServiceReference>();
 
-                boolean assignable = true;
-                for (String objectClass : (String[]) p.get(Constants.OBJECTCLASS))
-                {
-                    if (!reference.isAssignableTo(bundleController, objectClass))
-                    {
-                        assignable = false;
-                        break;
-                    }
-                }
-                if (!assignable) continue;
+        for (ServiceEntry entry : obtainCandidates(clazz, expr))
+        {
+            ServiceRegistrationImpl.ServiceReferenceImpl reference = (ServiceRegistrationImpl.ServiceReferenceImpl) entry.getRegistration().getReference();
+            Dictionary<String, Object> p = reference.getProperties();
 
-                if (filter != null && !filter.match(p)) continue;
+            if (clazz != null && !isRegisteredUnder(p, clazz)) continue;
 
-                result.add(reference);
-            }
+            if (!isSecure(p)) continue;
+
+            if (expr != null && !expr.match(reference.getCaseInsensitiveProperties())) continue;
 
-            return sortedReferences(result);
+            result.add(reference);
         }
+
+        return result.isEmpty() ? null : result.toArray(new ServiceReference[result.size()]);
     }
 
-    public ServiceReference[] getAllServiceReferences(String clazz, String filter) throws InvalidSyntaxException
+    /**
+     * Return the highest ranked service that is visible to the requesting
+     * bundle.  Since the buckets are kept in ranking order the first
+     * visible entry is the answer.
+     */
+    public ServiceReference getServiceReference(BundleController bundleController, String clazz)
     {
-        synchronized (lock)
+        assert bundleController != null;
+
+        for (ServiceEntry entry : obtainCandidates(clazz, null))
+        {
+            ServiceRegistrationImpl.ServiceReferenceImpl reference = (ServiceRegistrationImpl.ServiceReferenceImpl) entry.getRegistration().getReference();
+
+            if (isVisible(bundleController, reference, clazz, null)) return reference;
+        }
+
+        return null;
+    }
+
+    /**
+     * Obtain the smallest, ranking ordered, set of entries that can satisfy
+     * the lookup.  The candidates are taken from the class index and from the
+     * attribute indexes of any equalities that the filter requires.  The
+     * candidates are a superset of the entries that match, the full filter
+     * must still be applied to each of them.
+     *
+     * @param clazz the class name the services must be registered under, may be null
+     * @param expr  the filter the services must match, may be null
+     * @return the candidates
+     */
+    private ServiceEntry[] obtainCandidates(String clazz, Expr expr)
+    {
+        ServiceEntry[] candidates;
+
+        if (clazz != null)
         {
-            Expr expr = (filter == null ? null : framework.getParser().parse(filter));
-            List<ServiceReference> result = new ArrayList<ServiceReference>();
+            candidates = indexByClass.get(clazz);
 
-            for (ServiceEntry entry : serviceEntries.values())
+            if (candidates == null) return EMPTY;
+        }
+        else
+        {
+            candidates = allEntries;
+        }
+
+        if (expr != null)
+        {
+            Set<String> attributes = indexedAttributes;
+
+            for (String[] equality : ExprUtils.collectEqualities(expr))
             {
-                ServiceRegistrationImpl registration = entry.getRegistration();
-                ServiceRegistrationImpl.ServiceReferenceImpl reference = (ServiceRegistrationImpl.ServiceReferenceImpl) registration.getReference();
-                Dictionary<String, Object> p = reference.getProperties();
+                String key = equality[0].toLowerCase();
 
-                boolean found = true;
-                if (clazz != null)
-                {
-                    found = false;
-                    for (String objectClass : (String[]) p.get(Constants.OBJECTCLASS))
-                    {
-                        if (objectClass.equals(clazz))
-                        {
-                            found = true;
-                            break;
-                        }
-                    }
-                }
-                if (!found) continue;
+                if (!attributes.contains(key)) continue;
+
+                ServiceEntry[] entries = EMPTY;
 
-                boolean secure = true;
-                for (String objectClass : (String[]) p.get(Constants.OBJECTCLASS))
+                Map<String, ServiceEntry[]> values = indexByAttribute.get(key);
+                if (values != null)
                 {
-                    try
-                    {
-                        SecurityUtils.checkServicePermission(objectClass, ServicePermission.GET);
-                    }
-                    catch (SecurityException e)
-                    {
-                        secure = false;
-                        break;
-                    }
+                    ServiceEntry[] matched = values.get(equality[1]);
+                    if (matched != null) entries = matched;
                 }
-                if (!secure) continue;
 
-                if (expr != null && !expr.match(p)) continue;
+                ServiceEntry[] unindexable = unindexableByAttribute.get(key);
+                if (unindexable != null) entries = merge(entries, unindexable);
 
-                result.add(reference);
-            }
+                if (entries.length < candidates.length) candidates = entries;
 
-            return sortedReferences(result);
+                if (candidates.length == 0) break;
+            }
         }
-    }
 
-    private static ServiceReference[] sortedReferences(List<ServiceReference> references)
+        return candidates;
+    }
+    /**
+     * Determine if a reference is visible to, and class space consistent
+     * with, the requesting bundle.
+     *
+     * @param bundleController the requesting bundle
+     * @param reference        the candidate reference
+     * @param clazz            an optional class name the service must be registered under
+     * @param filter           an optional filter that the service properties must match
+     * @return true if the reference should be returned to the requesting bundle
+     */
+    private static boolean isVisible(BundleController bundleController, ServiceRegistrationImpl.ServiceReferenceImpl reference, String clazz, DefaultFilter filter)
     {
-        if (references.isEmpty()) return null;
-
-        if (references.size() == 1) return references.toArray(new ServiceReference[1]);
+        Dictionary<String, Object> p = reference.getProperties();
 
-        SortedSet<ServiceReference> sorted = new TreeSet<ServiceReference>(new Comparator<ServiceReference>()
-        {
-            public int compare(ServiceReference o1, ServiceReference o2)
-            {
-                Integer ranking1 = (Integer) o1.getProperty(Constants.SERVICE_RANKING);
-                Integer ranking2 = (Integer) o2.getProperty(Constants.SERVICE_RANKING);
+        if (clazz != null && !isRegisteredUnder(p, clazz)) return false;
 
-                int result = -ranking1.compareTo(ranking2);
+        if (!isSecure(p)) return false;
 
-                if (result != 0) return result;
-
-                Long id1 = (Long) o1.getProperty(Constants.SERVICE_ID);
-                Long id2 = (Long) o2.getProperty(Constants.SERVICE_ID);
+        for (String objectClass : (String[]) p.get(Constants.OBJECTCLASS))
+        {
+            if (!reference.isAssignableTo(bundleController, objectClass)) return false;
+        }
 
-                return id1.compareTo(id2);
-            }
-        });
-        sorted.addAll(references);
+        return filter == null || filter.match(reference);
+    }
 
-        return sorted.toArray(new ServiceReference[sorted.size()]);
+    private static boolean isRegisteredUnder(Dictionary<String, Object> properties, String clazz)
+    {
+        for (String objectClass : (String[]) properties.get(Constants.OBJECTCLASS))
+        {
+            if (objectClass.equals(clazz)) return true;
+        }
+        return false;
     }
 
-    public ServiceReference getServiceReference(BundleController bundleController, String clazz)
+    private static boolean isSecure(Dictionary<String, Object> properties)
     {
-        synchronized (lock)
+        for (String objectClass : (String[]) properties.get(Constants.OBJECTCLASS))
         {
             try
             {
-                ServiceReference[] references = getServiceReferences(bundleController, clazz, null);
-
-                if (references == null) return null;
-
-                return references[0];
+                SecurityUtils.checkServicePermission(objectClass, ServicePermission.GET);
             }
-            catch (InvalidSyntaxException neverHappens)
+            catch (SecurityException e)
             {
-                return null;
+                return false;
             }
         }
+        return true;
     }
 
     public Object getService(BundleController bundleController, ServiceReference sr)
@@ -520,17 +596,21 @@ class ServiceRegistry
         }
         if (se != null) throw se;
 
-        ServiceEntry entry;
+        ServiceEntry entry = serviceEntries.get(serviceReference.getServiceId());
+
+        if (entry == null) return null;
+
         BundleServiceReference reference;
         synchronized (lock)
         {
-            //noinspection SuspiciousMethodCalls
-            entry = serviceEntries.get(serviceReference.getServiceId());
-
-            if (entry == null) return null;
+            if (!serviceEntries.containsKey(serviceReference.getServiceId())) return null;
 
             reference = entry.getUsingBundles().get(bundleController);
-            if (reference == null) entry.getUsingBundles().put(bundleController, reference = new BundleServiceReference());
+            if (reference == null)
+            {
+                entry.getUsingBundles().put(bundleController, reference = new BundleServiceReference());
+                addToBundleIndex(usagesByBundle, bundleController, entry);
+            }
 
             reference.increment();
         }
@@ -564,10 +644,13 @@ class ServiceRegistry
 
     public boolean ungetService(BundleController bundleController, ServiceReference serviceReference)
     {
+        ServiceEntry entry;
+        Object service = null;
+
         synchronized (lock)
         {
-            @SuppressWarnings({ "SuspiciousMethodCalls" })
-            ServiceEntry entry = serviceEntries.get(serviceReference.getProperty(Constants.SERVICE_ID));
+            //noinspection SuspiciousMethodCalls
+            entry = serviceEntries.get(serviceReference.getProperty(Constants.SERVICE_ID));
 
             if (entry == null) return false;
 
@@ -579,39 +662,45 @@ class ServiceRegistry
 
             if (reference.getCount() == 0)
             {
-                Object service = reference.getService();
-                if (service != null)
-                {
-                    ServiceFactory factory = (ServiceFactory) entry.getService();
-                    factory.ungetService(bundleController, entry.getRegistration(), service);
-                }
+                service = reference.getService();
                 entry.getUsingBundles().remove(bundleController);
+                removeFromBundleIndex(usagesByBundle, bundleController, entry);
             }
+        }
 
-            return true;
+        if (service != null)
+        {
+            ServiceFactory factory = (ServiceFactory) entry.getService();
+            factory.ungetService(bundleController, entry.getRegistration(), service);
         }
+
+        return true;
     }
 
     public void ungetService(BundleController bundleController)
     {
+        Map<ServiceEntry, Object> services = new HashMap<ServiceEntry, Object>();
+
         synchronized (lock)
         {
-            for (ServiceEntry entry : serviceEntries.values())
-            {
-                BundleServiceReference reference = entry.getUsingBundles().get(bundleController);
+            Set<ServiceEntry> entries = usagesByBundle.remove(bundleController);
 
-                if (reference == null) continue;
+            if (entries == null) return;
 
-                Object service = reference.getService();
-                if (service != null)
-                {
-                    ServiceFactory factory = (ServiceFactory) entry.getService();
-                    factory.ungetService(bundleController, entry.getRegistration(), service);
-                }
+            for (ServiceEntry entry : entries)
+            {
+                BundleServiceReference reference = entry.getUsingBundles().remove(bundleController);
 
-                entry.getUsingBundles().remove(bundleController);
+                if (reference != null && reference.getService() != null) services.put(entry, reference.getService());
             }
         }
+
+        for (Map.Entry<ServiceEntry, Object> service : services.entrySet())
+        {
+            ServiceEntry entry = service.getKey();
+            ServiceFactory factory = (ServiceFactory) entry.getService();
+            factory.ungetService(bundleController, entry.getRegistration(), service.getValue());
+        }
     }
 
     public void setProperties(long serviceId, Dictionary old)
@@ -622,6 +711,18 @@ class ServiceRegistry
             entry = serviceEntries.get(serviceId);
 
             if (entry == null) return;
+
+            ServiceRegistrationImpl.ServiceReferenceImpl reference = (ServiceRegistrationImpl.ServiceReferenceImpl) entry.getRegistration().getReference();
+            int ranking = obtainRanking(reference.getProperty(Constants.SERVICE_RANKING));
+
+            if (ranking != entry.getRanking())
+            {
+                String[] classes = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+
+                rerank(entry, classes, ranking);
+            }
+
+            reindexAttributes(entry, reference.getProperties());
         }
 
         ServiceRegistrationImpl serviceRegistration = entry.getRegistration();
@@ -642,6 +743,14 @@ class ServiceRegistry
             if (entry == null) throw new IllegalStateException("Service has already be unregistered");
 
             serviceEntries.remove(serviceId);
+            unindex(entry, (String[]) entry.getRegistration().getReference().getProperty(Constants.OBJECTCLASS));
+            unindexAttributes(entry);
+            removeFromBundleIndex(registrationsByBundle, entry.getBundle(), entry);
+
+            for (BundleController bundle : entry.getUsingBundles().keySet())
+            {
+                removeFromBundleIndex(usagesByBundle, bundle, entry);
+            }
         }
 
         try
@@ -670,21 +779,26 @@ class ServiceRegistry
 
     public void unregister(BundleController bundleController)
     {
-        Set<ServiceEntry> entries = new HashSet<ServiceEntry>();
+        Set<ServiceEntry> entries;
 
         synchronized (lock)
         {
-            for (ServiceEntry entry : serviceEntries.values())
+            entries = registrationsByBundle.get(bundleController);
+
+            if (entries == null) return;
+
+            entries = new HashSet<ServiceEntry>(entries);
+        }
+
+        for (ServiceEntry entry : entries)
+        {
+            try
             {
-                if (entry.getBundle() == bundleController)
-                {
-                    entries.add(entry);
-                }
+                unregister(entry.getServiceId());
             }
-
-            for (ServiceEntry entry : entries)
+            catch (IllegalStateException ise)
             {
-                unregister((Long) entry.getRegistration().getReference().getProperty(Constants.SERVICE_ID));
+                LOGGER.finest("Service " + entry + " was concurrently unregistered");
             }
         }
     }
@@ -705,6 +819,382 @@ class ServiceRegistry
         }
     }
 
+    /**
+     * Publish new snapshots of the class buckets, and of the bucket of all
+     * entries, that include the entry.  Buckets are never modified once
+     * published.
+     *
+     * @param entry   the entry to add
+     * @param classes the object classes under which the entry is registered
+     */
+    private void index(ServiceEntry entry, String[] classes)
+    {
+        assert Thread.holdsLock(lock);
+
+        allEntries = insert(allEntries, entry);
+
+        for (String clazz : classes)
+        {
+            ServiceEntry[] entries = indexByClass.get(clazz);
+            if (entries == null) entries = EMPTY;
+
+            indexByClass.put(clazz, insert(entries, entry));
+        }
+    }
+
+    /**
+     * Publish new snapshots of the class buckets, and of the bucket of all
+     * entries, that exclude the entry.
+     *
+     * @param entry   the entry to remove
+     * @param classes the object classes under which the entry is registered
+     */
+    private void unindex(ServiceEntry entry, String[] classes)
+    {
+        assert Thread.holdsLock(lock);
+
+        allEntries = remove(allEntries, entry);
+
+        for (String clazz : classes)
+        {
+            ServiceEntry[] entries = indexByClass.get(clazz);
+            if (entries == null) continue;
+
+            entries = remove(entries, entry);
+
+            if (entries.length == 0)
+            {
+                indexByClass.remove(clazz);
+            }
+            else
+            {
+                indexByClass.put(clazz, entries);
+            }
+        }
+    }
+
+    /**
+     * Change the ranking of an indexed entry and publish new snapshots of
+     * the class buckets, and of the bucket of all entries, in which the
+     * entry is moved to its new position.  Each bucket is replaced once so
+     * readers never observe a bucket without the entry.
+     *
+     * @param entry   the entry whose ranking changed
+     * @param classes the object classes under which the entry is registered
+     * @param ranking the new service ranking
+     */
+    private void rerank(ServiceEntry entry, String[] classes, int ranking)
+    {
+        assert Thread.holdsLock(lock);
+
+        entry.setRanking(ranking);
+
+        allEntries = move(allEntries, entry);
+
+        for (String clazz : classes)
+        {
+            ServiceEntry[] entries = indexByClass.get(clazz);
+            if (entries != null) indexByClass.put(clazz, move(entries, entry));
+        }
+    }
+
+    /**
+     * Index the entry under the values of those of its properties whose keys
+     * are indexed.
+     *
+     * @param entry      the entry to add
+     * @param properties the service properties of the entry
+     */
+    private void indexAttributes(ServiceEntry entry, Dictionary<String, Object> properties)
+    {
+        assert Thread.holdsLock(lock);
+
+        List<String[]> indexed = collectIndexedAttributes(properties);
+
+        for (String[] pair : indexed) publish(pair, insert(obtainBucket(pair), entry));
+
+        entry.setIndexedAttributes(indexed);
+    }
+
+    /**
+     * Index the entry under the values of its modified properties.  The
+     * buckets of the new values are published before the entry is removed
+     * from the buckets of values it no longer has, so that readers always
+     * find the entry in one of them.  Buckets that are kept have the entry
+     * moved in case its ranking changed.
+     *
+     * @param entry      the entry whose properties were modified
+     * @param properties the modified service properties of the entry
+     */
+    private void reindexAttributes(ServiceEntry entry, Dictionary<String, Object> properties)
+    {
+        assert Thread.holdsLock(lock);
+
+        List<String[]> previous = entry.getIndexedAttributes();
+        List<String[]> indexed = collectIndexedAttributes(properties);
+
+        for (String[] pair : indexed)
+        {
+            ServiceEntry[] entries = obtainBucket(pair);
+
+            publish(pair, containsPair(previous, pair) ? move(entries, entry) : insert(entries, entry));
+        }
+
+        entry.setIndexedAttributes(indexed);
+
+        for (String[] pair : previous)
+        {
+            if (!containsPair(indexed, pair)) publish(pair, remove(obtainBucket(pair), entry));
+        }
+    }
+
+    private void unindexAttributes(ServiceEntry entry)
+    {
+        assert Thread.holdsLock(lock);
+
+        for (String[] pair : entry.getIndexedAttributes()) publish(pair, remove(obtainBucket(pair), entry));
+
+        entry.setIndexedAttributes(Collections.<String[]>emptyList());
+    }
+
+    /**
+     * Collect the attribute key/value pairs under which the properties are
+     * to be indexed.  Only string values are hashed, a property with any
+     * other type of value is placed in the unindexable bucket of that key,
+     * denoted by a null value, since the filter may convert its operand to
+     * match it.
+     *
+     * @param properties the service properties
+     * @return the attribute key/value pairs
+     */
+    private List<String[]> collectIndexedAttributes(Dictionary<String, Object> properties)
+    {
+        Set<String> attributes = indexedAttributes;
+        List<String[]> indexed = new ArrayList<String[]>();
+
+        for (Enumeration<String> enumeration = properties.keys(); enumeration.hasMoreElements();)
+        {
+            String property = enumeration.nextElement();
+            String key = property.toLowerCase();
+
+            if (!attributes.contains(key)) continue;
+
+            Set<String> strings = new HashSet<String>();
+            boolean unindexable = false;
+
+            Object value = properties.get(property);
+            if (value instanceof String)
+            {
+                strings.add((String) value);
+            }
+            else if (value instanceof Collection)
+            {
+                for (Object element : (Collection) value)
+                {
+                    if (element instanceof String) strings.add((String) element);
+                    else unindexable = true;
+                }
+            }
+            else if (value.getClass().isArray())
+            {
+                for (int i = 0; i < Array.getLength(value); i++)
+                {
+                    Object element = Array.get(value, i);
+                    if (element instanceof String) strings.add((String) element);
+                    else unindexable = true;
+                }
+            }
+            else
+            {
+                unindexable = true;
+            }
+
+            for (String string : strings) indexed.add(new String[]{ key, string });
+
+            if (unindexable) indexed.add(new String[]{ key, null });
+        }
+
+        return indexed;
+    }
+
+    private ServiceEntry[] obtainBucket(String[] pair)
+    {
+        ServiceEntry[] entries;
+
+        if (pair[1] == null)
+        {
+            entries = unindexableByAttribute.get(pair[0]);
+        }
+        else
+        {
+            Map<String, ServiceEntry[]> values = indexByAttribute.get(pair[0]);
+            entries = (values == null ? null : values.get(pair[1]));
+        }
+
+        return entries == null ? EMPTY : entries;
+    }
+
+    private void publish(String[] pair, ServiceEntry[] entries)
+    {
+        assert Thread.holdsLock(lock);
+
+        if (pair[1] == null)
+        {
+            if (entries.length == 0) unindexableByAttribute.remove(pair[0]);
+            else unindexableByAttribute.put(pair[0], entries);
+        }
+        else
+        {
+            Map<String, ServiceEntry[]> values = indexByAttribute.get(pair[0]);
+
+            if (entries.length == 0)
+            {
+                if (values != null) values.remove(pair[1]);
+            }
+            else
+            {
+                if (values == null) indexByAttribute.put(pair[0], values = new ConcurrentHashMap<String, ServiceEntry[]>());
+                values.put(pair[1], entries);
+            }
+        }
+    }
+
+    private static boolean containsPair(List<String[]> pairs, String[] pair)
+    {
+        for (String[] candidate : pairs) if (Arrays.equals(candidate, pair)) return true;
+        return false;
+    }
+
+    private static void addToBundleIndex(Map<BundleController, Set<ServiceEntry>> index, BundleController bundle, ServiceEntry entry)
+    {
+        Set<ServiceEntry> entries = index.get(bundle);
+        if (entries == null) index.put(bundle, entries = new HashSet<ServiceEntry>());
+
+        entries.add(entry);
+    }
+
+    private static void removeFromBundleIndex(Map<BundleController, Set<ServiceEntry>> index, BundleController bundle, ServiceEntry entry)
+    {
+        Set<ServiceEntry> entries = index.get(bundle);
+        if (entries == null) return;
+
+        entries.remove(entry);
+
+        if (entries.isEmpty()) index.remove(bundle);
+    }
+
+    /**
+     * Merge two ranking ordered arrays of distinct entries.  An entry whose
+     * property mixes string and other values is in both a value bucket and
+     * the unindexable bucket of the key, it is kept only once.
+     */
+    private static ServiceEntry[] merge(ServiceEntry[] a, ServiceEntry[] b)
+    {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+
+        ServiceEntry[] result = new ServiceEntry[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+
+        while (i < a.length && j < b.length)
+        {
+            if (a[i] == b[j])
+            {
+                result[k++] = a[i++];
+                j++;
+            }
+            else if (ServiceEntry.RANKING_ORDER.compare(a[i], b[j]) < 0)
+            {
+                result[k++] = a[i++];
+            }
+            else
+            {
+                result[k++] = b[j++];
+            }
+        }
+        while (i < a.length) result[k++] = a[i++];
+        while (j < b.length) result[k++] = b[j++];
+
+        return k == result.length ? result : Arrays.copyOf(result, k);
+    }
+
+    private static ServiceEntry[] insert(ServiceEntry[] entries, ServiceEntry entry)
+    {
+        int index = Arrays.binarySearch(entries, entry, ServiceEntry.RANKING_ORDER);
+        if (index < 0) index = -(index + 1);
+
+        ServiceEntry[] result = new ServiceEntry[entries.length + 1];
+        System.arraycopy(entries, 0, result, 0, index);
+        result[index] = entry;
+        System.arraycopy(entries, index, result, index + 1, entries.length - index);
+
+        return result;
+    }
+
+    /**
+     * Move an entry whose ranking changed to its new position.  The other
+     * entries must still be in ranking order.
+     */
+    private static ServiceEntry[] move(ServiceEntry[] entries, ServiceEntry entry)
+    {
+        int from = 0;
+        while (from < entries.length && entries[from] != entry) from++;
+
+        if (from == entries.length) return insert(entries, entry);
+
+        int to = from;
+        while (to > 0 && ServiceEntry.RANKING_ORDER.compare(entry, entries[to - 1]) < 0) to--;
+        while (to < entries.length - 1 && ServiceEntry.RANKING_ORDER.compare(entry, entries[to + 1]) > 0) to++;
+
+        if (to == from) return entries;
+
+        ServiceEntry[] result = entries.clone();
+        if (to < from) System.arraycopy(entries, to, result, to + 1, from - to);
+        else System.arraycopy(entries, from + 1, result, from, to - from);
+        result[to] = entry;
+
+        return result;
+    }
+
+    private static ServiceEntry[] remove(ServiceEntry[] entries, ServiceEntry entry)
+    {
+        for (int i = 0; i < entries.length; i++)
+        {
+            if (entries[i] == entry)
+            {
+                ServiceEntry[] result = new ServiceEntry[entries.length - 1];
+                System.arraycopy(entries, 0, result, 0, i);
+                System.arraycopy(entries, i + 1, result, i, entries.length - i - 1);
+
+                return result;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Obtain the service ranking from a property value.  Values that are not
+     * integers, or cannot be parsed as integers, are treated as zero.
+     *
+     * @param value the value of the <code>service.ranking</code> property
+     * @return the service ranking
+     */
+    private static int obtainRanking(Object value)
+    {
+        if (value instanceof Integer) return (Integer) value;
+        if (value == null) return 0;
+
+        try
+        {
+            return Integer.parseInt(value.toString());
+        }
+        catch (NumberFormatException e)
+        {
+            LOGGER.warning("Bad value for service.ranking " + value);
+            return 0;
+        }
+    }
+
     public static void checkClasses(Object service, String[] clazzes)
     {
         Set<Class> classes = ClassUtils.getAllInterfacesAsSet(service);
@@ -737,12 +1227,28 @@ class ServiceRegistry
 
     private static class ServiceEntry
     {
+        /**
+         * Orders entries by descending service ranking and then by ascending
+         * service id, i.e. the order in which references are to be returned.
+         */
+        private final static Comparator<ServiceEntry> RANKING_ORDER = new Comparator<ServiceEntry>()
+        {
+            public int compare(ServiceEntry o1, ServiceEntry o2)
+            {
+                if (o1.ranking != o2.ranking) return o1.ranking > o2.ranking ? -1 : 1;
+                if (o1.serviceId != o2.serviceId) return o1.serviceId < o2.serviceId ? -1 : 1;
+                return 0;
+            }
+        };
         private final ServiceRegistrationImpl registration;
         private final BundleController bundle;
         private final Object service;
-        private final Map<BundleController, BundleServiceReference> usingBundles = new HashMap<BundleController, BundleServiceReference>();
+        private final long serviceId;
+        private final Map<BundleController, BundleServiceReference> usingBundles = new ConcurrentHashMap<BundleController, BundleServiceReference>();
+        private volatile int ranking;
+        private List<String[]> indexedAttributes = Collections.emptyList();
 
-        private ServiceEntry(ServiceRegistrationImpl registration, BundleController bundle, Object service)
+        private ServiceEntry(ServiceRegistrationImpl registration, BundleController bundle, Object service, long serviceId, int ranking)
         {
             assert registration != null;
             assert bundle != null;
@@ -751,6 +1257,8 @@ class ServiceRegistry
             this.registration = registration;
             this.bundle = bundle;
             this.service = service;
+            this.serviceId = serviceId;
+            this.ranking = ranking;
         }
 
         public ServiceRegistrationImpl getRegistration()
@@ -773,6 +1281,40 @@ class ServiceRegistry
             return usingBundles;
         }
 
+        public long getServiceId()
+        {
+            return serviceId;
+        }
+
+        public int getRanking()
+        {
+            return ranking;
+        }
+
+        /**
+         * Update the cached ranking.  The entry must be removed from, and
+         * re-added to, any sorted bucket that holds it.
+         *
+         * @param ranking the new service ranking
+         */
+        public void setRanking(int ranking)
+        {
+            this.ranking = ranking;
+        }
+
+        /**
+         * @return the attribute key/value pairs under which this entry is indexed, a null value denotes the unindexable bucket
+         */
+        public List<String[]> getIndexedAttributes()
+        {
+            return indexedAttributes;
+        }
+
+        public void setIndexedAttributes(List<String[]> indexedAttributes)
+        {
+            this.indexedAttributes = indexedAttributes;
+        }
+
         @Override
         public String toString()
         {
@@ -780,6 +1322,39 @@ class ServiceRegistry
         }
     }
 
+    private static class AssignableKey
+    {
+        private final Generation requesting;
+        private final Generation registering;
+        private final String packageName;
+        private final int hashCode;
+
+        private AssignableKey(Generation requesting, Generation registering, String packageName)
+        {
+            this.requesting = requesting;
+            this.registering = registering;
+            this.packageName = packageName;
+            this.hashCode = 31 * (31 * System.identityHashCode(requesting) + System.identityHashCode(registering)) + packageName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            AssignableKey that = (AssignableKey) o;
+
+            return requesting == that.requesting && registering == that.registering && packageName.equals(that.packageName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
     private static class BundleServiceReference
     {
         private int count;
@@ -48,6 +48,29 @@ public class VersionRange
         this.endIncluding = endIncluding;
     }
 
+    public Version getStart()
+    {
+        return start;
+    }
+
+    /**
+     * @return the end of the range or null if the range is unbounded
+     */
+    public Version getEnd()
+    {
+        return end;
+    }
+
+    public boolean isStartIncluding()
+    {
+        return startIncluding;
+    }
+
+    public boolean isEndIncluding()
+    {
+        return endIncluding;
+    }
+
     public boolean includes(Version version)
     {
         if (version == null) version = DEFAULT_VERSION;
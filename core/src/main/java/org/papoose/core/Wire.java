@@ -78,29 +78,52 @@ public class Wire
     {
         int packageIndex = resource.lastIndexOf('/');
         packageIndex = (packageIndex < 0 ? 0 : packageIndex);
-        String packageName = resource.substring(0, packageIndex).replace('/', '.');
-        resource = resource.substring(Math.min(resource.length(), packageIndex + 1));
 
-        if (this.packageName.equals(packageName))
+        if (packageIndex != packageName.length()) return false;
+
+        for (int i = 0; i < packageIndex; i++)
         {
-            boolean matched = exportDescription.getInclude().isEmpty();
-            for (String[] include : exportDescription.getInclude())
-            {
-                if (Util.match(include, resource))
-                {
-                    matched = true;
-                    break;
-                }
-            }
-            if (!matched) return false;
+            char c = resource.charAt(i);
+            if ((c == '/' ? '.' : c) != packageName.charAt(i)) return false;
+        }
+
+        return !isFiltered() || admits(resource.substring(Math.min(resource.length(), packageIndex + 1)));
+    }
+
+    /**
+     * @return true if the export restricts the classes that are visible through it
+     */
+    public boolean isFiltered()
+    {
+        return !exportDescription.getInclude().isEmpty() || !exportDescription.getExclude().isEmpty();
+    }
 
-            for (String[] exclude : exportDescription.getExclude())
+    /**
+     * Check if a class or resource name, without its package, passes the
+     * include and exclude filters of the export.  The caller is expected to
+     * have already checked that the package matches.
+     *
+     * @param name the name, without its package, to be tested
+     * @return the results of the test
+     */
+    public boolean admits(String name)
+    {
+        boolean matched = exportDescription.getInclude().isEmpty();
+        for (String[] include : exportDescription.getInclude())
+        {
+            if (Util.match(include, name))
             {
-                if (Util.match(exclude, resource)) return false;
+                matched = true;
+                break;
             }
-            return true;
         }
-        return false;
+        if (!matched) return false;
+
+        for (String[] exclude : exportDescription.getExclude())
+        {
+            if (Util.match(exclude, name)) return false;
+        }
+        return true;
     }
 
 
@@ -35,6 +35,11 @@ class And implements Expr
         this.expressions = expressions;
     }
 
+    Expr[] getExpressions()
+    {
+        return expressions;
+    }
+
     public boolean match(Dictionary<String, Object> dictionary)
     {
         for (Expr expr : expressions)
@@ -21,6 +21,8 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
 import java.util.Dictionary;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -28,8 +30,32 @@ import java.util.Dictionary;
  */
 abstract class CompareExpr implements Expr
 {
+    /**
+     * The constructor that takes a single string, if any, of each class.
+     */
+    private final static ClassValue<Constructor> CONSTRUCTORS = new ClassValue<Constructor>()
+    {
+        protected Constructor computeValue(Class<?> type)
+        {
+            try
+            {
+                return type.getConstructor(String.class);
+            }
+            catch (NoSuchMethodException e)
+            {
+                return null;
+            }
+            catch (SecurityException e)
+            {
+                return null;
+            }
+        }
+    };
+    private final static Object NULL = new Object();
+    private final static Object INVALID = new Object();
     protected final String attribute;
     protected final String value;
+    private final Map<Class, Object> operands = new ConcurrentHashMap<Class, Object>();
 
     public CompareExpr(String attribute, String value)
     {
@@ -51,7 +77,9 @@ abstract class CompareExpr implements Expr
             Object test;
             if (isScalar(object))
             {
-                test = convert(object, value);
+                test = operand(object);
+
+                if (test == INVALID) return false;
             }
             else if (object.getClass().isArray())
             {
@@ -60,7 +88,11 @@ abstract class CompareExpr implements Expr
                 for (int i = 0; i < length; i++)
                 {
                     Object element = Array.get(object, i);
-                    if (isScalar(element) && testPair(element, convert(element, value))) return true;
+                    if (!isScalar(element)) continue;
+
+                    Object converted = operand(element);
+                    if (converted == INVALID) return false;
+                    if (testPair(element, converted)) return true;
                 }
                 return false;
             }
@@ -68,7 +100,11 @@ abstract class CompareExpr implements Expr
             {
                 for (Object element : (Collection) object)
                 {
-                    if (isScalar(element) && testPair(element, convert(element, value))) return true;
+                    if (!isScalar(element)) continue;
+
+                    Object converted = operand(element);
+                    if (converted == INVALID) return false;
+                    if (testPair(element, converted)) return true;
                 }
                 return false;
             }
@@ -85,6 +121,53 @@ abstract class CompareExpr implements Expr
         }
     }
 
+    /**
+     * Obtain the operand converted to the class of the object being tested.
+     * Conversions to the immutable built in types are performed once per
+     * class and then cached.  Other classes are converted on every call;
+     * caching them would share possibly mutable operands and, since filters
+     * are themselves cached, pin the class loaders of their bundles.
+     *
+     * @param object the object the operand will be compared to
+     * @return the converted operand or <code>INVALID</code> if the operand cannot be parsed for that class, in which case the expression does not match
+     */
+    private Object operand(Object object)
+    {
+        Class type = object.getClass();
+        boolean cacheable = isBuiltIn(type);
+        Object operand = cacheable ? operands.get(type) : null;
+
+        if (operand == null)
+        {
+            try
+            {
+                operand = convert(object, value);
+                if (operand == null) operand = NULL;
+            }
+            catch (NumberFormatException e)
+            {
+                operand = INVALID;
+            }
+
+            if (cacheable) operands.put(type, operand);
+        }
+
+        return operand == NULL ? null : operand;
+    }
+
+    private static boolean isBuiltIn(Class type)
+    {
+        return type == String.class
+               || type == Integer.class
+               || type == Long.class
+               || type == Float.class
+               || type == Double.class
+               || type == Byte.class
+               || type == Short.class
+               || type == Character.class
+               || type == Boolean.class;
+    }
+
     protected abstract boolean testPair(Object object, Object value);
 
     protected abstract Object getFalseObject();
@@ -129,19 +212,14 @@ abstract class CompareExpr implements Expr
         }
         else if (object != null)
         {
+            Constructor constructor = CONSTRUCTORS.get(object.getClass());
+
+            if (constructor == null) return getFalseObject();
+
             try
             {
-                Constructor constructor = object.getClass().getConstructor(String.class);
                 return constructor.newInstance(value);
             }
-            catch (NoSuchMethodException e)
-            {
-                return getFalseObject();
-            }
-            catch (SecurityException e)
-            {
-                return getFalseObject();
-            }
             catch (IllegalAccessException e)
             {
                 return getFalseObject();
@@ -201,18 +279,7 @@ abstract class CompareExpr implements Expr
         }
         else
         {
-            try
-            {
-                return (object != null && object.getClass().getConstructor(String.class) != null);
-            }
-            catch (NoSuchMethodException e)
-            {
-                return false;
-            }
-            catch (SecurityException e)
-            {
-                return false;
-            }
+            return (object != null && CONSTRUCTORS.get(object.getClass()) != null);
         }
     }
 }
@@ -0,0 +1,120 @@
+/**
+ *
+ * Copyright 2009 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ *
+ */
+public final class ExprUtils
+{
+    /**
+     * Collect the equality tests that must all hold for the expression to
+     * match, i.e. the expression itself if it is an equality or the
+     * equalities that are direct children of a top level conjunction.  Any
+     * dictionary that matches the expression will also match each returned
+     * equality.
+     *
+     * @param expr the expression to examine
+     * @return a list of attribute/value pairs, possibly empty
+     */
+    public static List<String[]> collectEqualities(Expr expr)
+    {
+        if (expr instanceof Equal)
+        {
+            Equal equal = (Equal) expr;
+            return Collections.singletonList(new String[]{ equal.attribute, equal.value });
+        }
+        else if (expr instanceof And)
+        {
+            List<String[]> result = new ArrayList<String[]>();
+
+            for (Expr child : ((And) expr).getExpressions())
+            {
+                if (child instanceof Equal)
+                {
+                    Equal equal = (Equal) child;
+                    result.add(new String[]{ equal.attribute, equal.value });
+                }
+            }
+
+            return result;
+        }
+        else
+        {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Collect the values that an attribute must be equal to for the
+     * expression to match.  Equalities on the attribute, conjunctions where
+     * at least one child constrains the attribute, and disjunctions where
+     * every child constrains the attribute are understood.  The attribute
+     * name is compared case insensitively.
+     *
+     * @param expr      the expression to examine
+     * @param attribute the name of the attribute
+     * @return the set of values, one of which the attribute must equal, or null if the expression does not constrain the attribute
+     */
+    public static Set<String> collectValues(Expr expr, String attribute)
+    {
+        if (expr instanceof Equal)
+        {
+            Equal equal = (Equal) expr;
+            return equal.attribute.equalsIgnoreCase(attribute) ? Collections.singleton(equal.value) : null;
+        }
+        else if (expr instanceof And)
+        {
+            Set<String> result = null;
+
+            for (Expr child : ((And) expr).getExpressions())
+            {
+                Set<String> values = collectValues(child, attribute);
+                if (values != null && (result == null || values.size() < result.size())) result = values;
+            }
+
+            return result;
+        }
+        else if (expr instanceof Or)
+        {
+            Set<String> result = new HashSet<String>();
+
+            for (Expr child : ((Or) expr).getExpressions())
+            {
+                Set<String> values = collectValues(child, attribute);
+                if (values == null) return null;
+
+                result.addAll(values);
+            }
+
+            return result;
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    private ExprUtils() { }
+}
@@ -36,6 +36,11 @@ class Or implements Expr
         this.expressions = expressions;
     }
 
+    Expr[] getExpressions()
+    {
+        return expressions;
+    }
+
     public boolean match(Dictionary<String, Object> dictionary)
     {
         for (Expr expr : expressions)
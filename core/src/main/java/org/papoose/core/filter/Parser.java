@@ -17,8 +17,11 @@
 package org.papoose.core.filter;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.InvalidSyntaxException;
 
@@ -28,7 +31,11 @@ import org.osgi.framework.InvalidSyntaxException;
  */
 public final class Parser
 {
+    public final static int DEFAULT_CACHE_SIZE = 256;
     private final ApproxAlgorithm approxAlgorithm;
+    private final Map<String, Expr> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     public Parser()
     {
@@ -36,24 +43,90 @@ public final class Parser
     }
 
     public Parser(ApproxAlgorithm approxAlgorithm)
+    {
+        this(approxAlgorithm, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param approxAlgorithm the algorithm used by approximate matches
+     * @param cacheSize       the maximum number of parsed expressions to retain, zero disables the cache
+     */
+    public Parser(ApproxAlgorithm approxAlgorithm, final int cacheSize)
     {
         if (approxAlgorithm == null) throw new IllegalArgumentException("Approx algorithm cannot be null");
+        if (cacheSize < 0) throw new IllegalArgumentException("Cache size cannot be negative");
 
         this.approxAlgorithm = approxAlgorithm;
+        this.cache = new LinkedHashMap<String, Expr>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expr> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
     }
 
+    /**
+     * Parse a filter expression.  Parsed expressions are immutable and are
+     * shared through a bounded, least recently used, cache keyed by the
+     * expression with its surrounding whitespace removed.
+     *
+     * @param expression the filter expression
+     * @return the parsed expression
+     * @throws InvalidSyntaxException if the expression is malformed
+     */
     public Expr parse(String expression) throws InvalidSyntaxException
     {
         if (expression == null) throw new IllegalArgumentException("The expression cannot be null");
 
+        String key = expression.trim();
+        Expr result;
+
+        synchronized (cache)
+        {
+            result = cache.get(key);
+        }
+
+        if (result != null)
+        {
+            hits.incrementAndGet();
+            return result;
+        }
+
+        misses.incrementAndGet();
+
         try
         {
-            return parseFilter(new State(expression));
+            result = parseFilter(new State(expression));
         }
         catch (StringIndexOutOfBoundsException e)
         {
             throw new InvalidSyntaxException("Rolled off the end of the string while parsing the expression", expression);
         }
+
+        synchronized (cache)
+        {
+            cache.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of calls to <code>parse</code> that were served from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of calls to <code>parse</code> that had to parse the expression
+     */
+    public long getMisses()
+    {
+        return misses.get();
     }
 
     Expr parseFilter(State state) throws InvalidSyntaxException
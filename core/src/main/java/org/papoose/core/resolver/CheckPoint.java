@@ -17,6 +17,7 @@
 package org.papoose.core.resolver;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +33,7 @@ import org.papoose.core.descriptions.ExportDescription;
 import org.papoose.core.descriptions.ImportDescription;
 import org.papoose.core.descriptions.RequireDescription;
 import org.papoose.core.descriptions.Visibility;
+import org.papoose.core.util.DeltaSet;
 import static org.papoose.core.util.Assert.assertTrue;
 import org.papoose.core.util.ToStringCreator;
 
@@ -45,45 +47,38 @@ public class CheckPoint
     private final List<BoundHost> resolved = new ArrayList<BoundHost>();
     private final List<UnBound> unResolved = new ArrayList<UnBound>();
 
-    private final Set<CandidateBundle> used = new HashSet<CandidateBundle>();
-    private final Set<Candidate> unused = new HashSet<Candidate>();
-    private final Map<String, Candidate> singletons = new HashMap<String, Candidate>();
+    private final DeltaSet<CandidateBundle> used;
+    private final DeltaSet<Candidate> unused;
+    private final Map<String, Candidate> singletons;
 
 
-    public CheckPoint(Generation generation, Set<Candidate> canonicalSet) throws IncompatibleException
+    public CheckPoint(Collection<Candidate> canonicalSet)
     {
-        assert generation != null;
         assert canonicalSet != null;
 
-        assertTrue(unResolved.add(new UnBound(generation)));
-        assertTrue(unused.addAll(canonicalSet));
+        used = new DeltaSet<CandidateBundle>();
+        unused = new DeltaSet<Candidate>(canonicalSet);
+        singletons = collectSingletons(unused);
+    }
 
-        for (Candidate candidate : unused)
-        {
-            Generation g = candidate.getGeneration();
-            if (g.getArchiveStore().isSingleton())
-            {
-                assertTrue(singletons.put(g.getSymbolicName(), candidate) == null);
-            }
-        }
+    public CheckPoint(Generation generation, Collection<Candidate> canonicalSet) throws IncompatibleException
+    {
+        this(canonicalSet);
+
+        assert generation != null;
+
+        assertTrue(unResolved.add(new UnBound(generation)));
     }
 
-    public CheckPoint(BundleGeneration bundleGeneration, ImportDescription importDescription, Set<Candidate> canonicalSet) throws IncompatibleException
+    public CheckPoint(BundleGeneration bundleGeneration, ImportDescription importDescription, Collection<Candidate> canonicalSet) throws IncompatibleException
     {
         assert bundleGeneration != null;
         assert importDescription != null;
         assert canonicalSet != null;
 
-        assertTrue(unused.addAll(canonicalSet));
-
-        for (Candidate candidate : unused)
-        {
-            Generation g = candidate.getGeneration();
-            if (g.getArchiveStore().isSingleton())
-            {
-                assertTrue(singletons.put(g.getSymbolicName(), candidate) == null);
-            }
-        }
+        used = new DeltaSet<CandidateBundle>();
+        unused = new DeltaSet<Candidate>(canonicalSet);
+        singletons = collectSingletons(unused);
 
         try
         {
@@ -114,6 +109,22 @@ public class CheckPoint
         checkSingltonViolation(bundleGeneration);
     }
 
+    private static Map<String, Candidate> collectSingletons(Set<Candidate> candidates)
+    {
+        Map<String, Candidate> singletons = new HashMap<String, Candidate>();
+
+        for (Candidate candidate : candidates)
+        {
+            Generation g = candidate.getGeneration();
+            if (g.getArchiveStore().isSingleton())
+            {
+                assertTrue(singletons.put(g.getSymbolicName(), candidate) == null);
+            }
+        }
+
+        return singletons;
+    }
+
     private Candidate findCandidate(BundleGeneration bundleGeneration)
     {
         for (Candidate candidate : unused) if (candidate.getGeneration() == bundleGeneration) return candidate;
@@ -123,13 +134,27 @@ public class CheckPoint
         return null;
     }
 
+    /**
+     * Branch off a check point.  The sets of used and unused candidates are
+     * shared with the original check point, only the changes made to them
+     * along the search path are copied.  The singletons never change once
+     * the search starts and are shared as is.
+     * <p/>
+     * Branching therefore costs time proportional to the search path, not
+     * to the canonical set: the resolved and unresolved lists, the bound
+     * host being resolved and the additions and removals of the used and
+     * unused sets are copied.  The used set starts empty so it is copied
+     * outright, by a rebase, whenever it has grown since it was last copied.
+     *
+     * @param checkPoint the check point to branch off
+     */
     CheckPoint(CheckPoint checkPoint)
     {
         resolved.addAll(checkPoint.resolved);
         unResolved.addAll(checkPoint.unResolved);
-        used.addAll(checkPoint.used);
-        unused.addAll(checkPoint.unused);
-        singletons.putAll(checkPoint.singletons);
+        used = checkPoint.used.fork();
+        unused = checkPoint.unused.fork();
+        singletons = checkPoint.singletons;
 
         if (checkPoint.resolving != null)
         {
@@ -137,24 +162,28 @@ public class CheckPoint
             assertTrue(used.remove(resolving));
             assertTrue(used.add(resolving));
 
-            for (CandidateBundle candidateBundle : used)
-            {
-                Set<CandidateWiring> replace = new HashSet<CandidateWiring>();
+            // only bound hosts carry wirings, no need to visit every used candidate
+            for (BoundHost boundHost : resolved) replaceWirings(boundHost);
+            replaceWirings(resolving);
+        }
+    }
 
-                for (CandidateWiring wiring : candidateBundle.getWirings())
-                {
-                    if (wiring.getCandidate().equals(resolving))
-                    {
-                        replace.add(new CandidateWiring(wiring, resolving));
-                    }
-                }
+    private void replaceWirings(CandidateBundle candidateBundle)
+    {
+        Set<CandidateWiring> replace = new HashSet<CandidateWiring>();
 
-                for (CandidateWiring wiring : replace)
-                {
-                    candidateBundle.replaceCandidateWiring(wiring);
-                }
+        for (CandidateWiring wiring : candidateBundle.getWirings())
+        {
+            if (wiring.getCandidate().equals(resolving))
+            {
+                replace.add(new CandidateWiring(wiring, resolving));
             }
         }
+
+        for (CandidateWiring wiring : replace)
+        {
+            candidateBundle.replaceCandidateWiring(wiring);
+        }
     }
 
     public BoundHost getResolving()
@@ -205,6 +234,16 @@ public class CheckPoint
         }
     }
 
+    // add a bundle to be resolved, used to resolve several bundles in one search
+    public CheckPoint newCheckPoint(Generation generation)
+    {
+        CheckPoint checkPoint = new CheckPoint(this);
+
+        assertTrue(checkPoint.unResolved.add(new UnBound(generation)));
+
+        return checkPoint;
+    }
+
     public CheckPoint newCheckPointUsed(Resolved resolvedHost, RequireDescription requireDescription) throws IncompatibleException
     {
         CheckPoint checkPoint = new CheckPoint(this);
@@ -18,11 +18,20 @@ package org.papoose.core.resolver;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +45,7 @@ import org.papoose.core.FragmentGeneration;
 import org.papoose.core.FrameworkExtensionGeneration;
 import org.papoose.core.Generation;
 import org.papoose.core.Papoose;
+import org.papoose.core.PapooseConstants;
 import org.papoose.core.PapooseException;
 import org.papoose.core.VersionRange;
 import org.papoose.core.Wire;
@@ -47,6 +57,7 @@ import org.papoose.core.spi.Resolver;
 import org.papoose.core.spi.Solution;
 import static org.papoose.core.util.Assert.assertTrue;
 import org.papoose.core.util.ResolverUtils;
+import org.papoose.core.util.PackageTrie;
 import org.papoose.core.util.Util;
 
 
@@ -59,9 +70,13 @@ public class DefaultResolver implements Resolver
     private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
     private final Object lock = new Object();
     private final Set<Generation> bundles = new HashSet<Generation>();
-    private final Map<String, List<BundleGeneration>> indexByPackage = new HashMap<String, List<BundleGeneration>>();
+    private final ExportIndex exportIndex = new ExportIndex();
+    private final Map<Generation, Candidate> canonicalSet = new HashMap<Generation, Candidate>();
+    private final Map<Generation, Integer> canonicalStates = new HashMap<Generation, Integer>();
+    private final Set<Generation> stale = new HashSet<Generation>();
     private Papoose framework;
-    private String[] bootDelegates;
+    private PackageTrie bootDelegation;
+    private ThreadPoolExecutor executor;
 
 
     /**
@@ -88,12 +103,13 @@ public class DefaultResolver implements Resolver
             this.framework = framework;
 
             String bootDelegateString = (String) framework.getProperty(Constants.FRAMEWORK_BOOTDELEGATION);
-            bootDelegates = (bootDelegateString == null ? new String[]{ } : bootDelegateString.split(","));
+            bootDelegation = new PackageTrie(bootDelegateString == null ? new String[]{ } : bootDelegateString.split(","));
 
-            for (int i = 0; i < bootDelegates.length; i++)
+            int threads = obtainThreads(framework);
+            if (threads > 1)
             {
-                bootDelegates[i] = bootDelegates[i].trim();
-                if (bootDelegates[i].endsWith(".*")) bootDelegates[i] = bootDelegates[i].substring(0, bootDelegates[i].length() - 1);
+                executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+                executor.allowCoreThreadTimeOut(true);
             }
         }
 
@@ -116,8 +132,14 @@ public class DefaultResolver implements Resolver
             }
 
             bundles.clear();
-            indexByPackage.clear();
-            bootDelegates = null;
+            exportIndex.clear();
+            canonicalSet.clear();
+            canonicalStates.clear();
+            stale.clear();
+            if (executor != null) executor.shutdownNow();
+
+            executor = null;
+            bootDelegation = null;
             framework = null;
         }
 
@@ -142,24 +164,9 @@ public class DefaultResolver implements Resolver
             }
 
             bundles.add(generation);
+            stale.add(generation);
 
-            if (generation instanceof BundleGeneration)
-            {
-                LOGGER.finest("Bundle is an regular bundleGeneration");
-
-                for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
-                {
-                    LOGGER.log(Level.FINEST, "Indexing", exportDescription);
-
-                    for (String packageName : exportDescription.getPackageNames())
-                    {
-                        List<BundleGeneration> bundleList = indexByPackage.get(packageName);
-                        if (bundleList == null) indexByPackage.put(packageName, bundleList = new ArrayList<BundleGeneration>());
-
-                        bundleList.add((BundleGeneration) generation);
-                    }
-                }
-            }
+            exportIndex.add(generation);
         }
 
         LOGGER.exiting(CLASS_NAME, "added");
@@ -183,25 +190,11 @@ public class DefaultResolver implements Resolver
             }
 
             bundles.remove(generation);
+            stale.remove(generation);
+            canonicalSet.remove(generation);
+            canonicalStates.remove(generation);
 
-            if (generation instanceof BundleGeneration)
-            {
-                LOGGER.finest("Bundle is a regular bundleGeneration");
-
-                BundleGeneration bundle = (BundleGeneration) generation;
-                for (ExportDescription exportDescription : bundle.getArchiveStore().getExportDescriptions())
-                {
-                    for (String packageName : exportDescription.getPackageNames())
-                    {
-                        List<BundleGeneration> bundleList = indexByPackage.get(packageName);
-                        if (bundleList == null) continue;
-
-                        bundleList.remove(bundle);
-
-                        if (bundleList.isEmpty()) indexByPackage.remove(packageName);
-                    }
-                }
-            }
+            exportIndex.remove(generation);
         }
 
         LOGGER.exiting(CLASS_NAME, "removed");
@@ -222,12 +215,10 @@ public class DefaultResolver implements Resolver
             if (generation.getState() != Bundle.INSTALLED) throw new BundleException("Bundle not in INSTALLED STATE");
             if (framework == null) throw new IllegalStateException("Framework has not started");
 
-            Set<Candidate> canonicalSet = ResolverUtils.collectCanonicalSet(bundles);
-
             CheckPoint result = null;
             try
             {
-                result = doResolve(new CheckPoint(generation, canonicalSet));
+                result = doResolve(new CheckPoint(generation, obtainCanonicalSet()));
             }
             catch (IncompatibleException ie)
             {
@@ -238,12 +229,152 @@ public class DefaultResolver implements Resolver
 
             Set<Solution> solutions = extractSolutions(result);
 
+            markStale(solutions);
+
             LOGGER.exiting(CLASS_NAME, "resolve", solutions);
 
             return solutions;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Solution> resolve(Set<Generation> generations)
+    {
+        LOGGER.entering(CLASS_NAME, "resolve", generations);
+
+        if (generations == null) throw new IllegalArgumentException("Bundles cannot be null");
+
+        synchronized (lock)
+        {
+            if (!bundles.containsAll(generations)) throw new IllegalArgumentException("Bundle does not belong to this framework instance");
+            if (framework == null) throw new IllegalStateException("Framework has not started");
+
+            List<Generation> sorted = new ArrayList<Generation>(generations);
+            Collections.sort(sorted, new Comparator<Generation>()
+            {
+                public int compare(Generation o1, Generation o2)
+                {
+                    long result = o1.getBundleId() - o2.getBundleId();
+                    return result < 0 ? -1 : (result > 0 ? 1 : 0);
+                }
+            });
+
+            Collection<Candidate> candidates = obtainCanonicalSet();
+            final CheckPoint root = new CheckPoint(candidates);
+            List<List<Generation>> clusters = DependencyClusters.partition(sorted, candidates);
+
+            Set<Solution> solutions = new HashSet<Solution>();
+
+            if (executor == null || clusters.size() < 2)
+            {
+                for (List<Generation> cluster : clusters) solutions.addAll(resolveIsolatedCluster(root, cluster));
+            }
+            else
+            {
+                List<Future<Set<Solution>>> futures = new ArrayList<Future<Set<Solution>>>(clusters.size() - 1);
+
+                for (final List<Generation> cluster : clusters.subList(1, clusters.size()))
+                {
+                    futures.add(executor.submit(new Callable<Set<Solution>>()
+                    {
+                        public Set<Solution> call() throws Exception
+                        {
+                            return resolveIsolatedCluster(root, cluster);
+                        }
+                    }));
+                }
+
+                solutions.addAll(resolveIsolatedCluster(root, clusters.get(0)));
+
+                for (Future<Set<Solution>> future : futures)
+                {
+                    try
+                    {
+                        solutions.addAll(future.get());
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        LOGGER.log(Level.WARNING, "Interrupted while resolving bundles", ie);
+                        for (Future<Set<Solution>> f : futures) f.cancel(true);
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    catch (ExecutionException ee)
+                    {
+                        LOGGER.log(Level.WARNING, "Unable to resolve cluster of bundles", ee.getCause());
+                    }
+                }
+            }
+
+            markStale(solutions);
+
+            LOGGER.exiting(CLASS_NAME, "resolve", solutions);
+
+            return solutions;
+        }
+    }
+
+    /**
+     * Resolve a cluster of generations, skipping the whole cluster if its
+     * search fails.  Every cluster is handled the same way whether it is
+     * resolved on the calling thread or on the resolver's pool.
+     *
+     * @param root    the check point from which the search starts
+     * @param cluster the generations to resolve
+     * @return the solutions found for the cluster or an empty set if its search failed
+     */
+    private Set<Solution> resolveIsolatedCluster(CheckPoint root, List<Generation> cluster)
+    {
+        try
+        {
+            return resolveCluster(root, cluster);
+        }
+        catch (RuntimeException re)
+        {
+            LOGGER.log(Level.WARNING, "Unable to resolve cluster of bundles", re);
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Resolve a cluster of generations in a single search.  Clusters are
+     * independent of one another, only the root check point, which is never
+     * modified, is shared between them.  Generations that cannot be
+     * resolved are skipped.  Fragments are not resolved on their own, they
+     * are attached when their host is resolved.
+     *
+     * @param root    the check point from which the search starts
+     * @param cluster the generations to resolve
+     * @return the solutions found for the cluster
+     */
+    private Set<Solution> resolveCluster(CheckPoint root, List<Generation> cluster)
+    {
+        CheckPoint checkPoint = root;
+
+        for (Generation generation : cluster)
+        {
+            if (generation.getState() != Bundle.INSTALLED || generation instanceof FragmentGeneration) continue;
+
+            // already part of the solutions found so far
+            if (!checkPoint.getUnused().contains(new Candidate(generation))) continue;
+
+            CheckPoint result = doResolve(checkPoint.newCheckPoint(generation));
+
+            if (result != null)
+            {
+                checkPoint = result;
+            }
+            else
+            {
+                if (LOGGER.isLoggable(Level.FINEST)) LOGGER.finest("No consistent solution set found for " + generation.getBundleController());
+            }
+        }
+
+        return extractSolutions(checkPoint);
+    }
+
     public Set<Solution> resolve(BundleGeneration bundleGeneration, ImportDescription importDescription) throws BundleException
     {
         LOGGER.entering(CLASS_NAME, "resolve", new Object[]{ bundleGeneration, importDescription });
@@ -257,12 +388,11 @@ public class DefaultResolver implements Resolver
             if ((bundleGeneration.getState() & (Bundle.INSTALLED | Bundle.UNINSTALLED)) != 0) throw new BundleException("Bundle not already resolved");
             if (framework == null) throw new IllegalStateException("Framework has not started");
 
-            Set<Candidate> canonicalSet = ResolverUtils.collectCanonicalSet(bundles);
             CheckPoint result = null;
 
             try
             {
-                result = doResolveBundle(new CheckPoint(bundleGeneration, importDescription, canonicalSet));
+                result = doResolveBundle(new CheckPoint(bundleGeneration, importDescription, obtainCanonicalSet()));
             }
             catch (IncompatibleException ie)
             {
@@ -275,12 +405,87 @@ public class DefaultResolver implements Resolver
 
             Set<Solution> solutions = extractSolutions(result);
 
+            markStale(solutions);
+
             LOGGER.exiting(CLASS_NAME, "resolve", solutions);
 
             return solutions;
         }
     }
 
+    private static int obtainThreads(Papoose framework)
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Object threadsValue = framework.getProperty(PapooseConstants.PAPOOSE_FRAMEWORK_RESOLVER_THREADS);
+
+        if (threadsValue != null)
+        {
+            try
+            {
+                threads = Integer.parseInt(threadsValue.toString());
+            }
+            catch (NumberFormatException nfe)
+            {
+                LOGGER.log(Level.WARNING, "Unable to parse " + PapooseConstants.PAPOOSE_FRAMEWORK_RESOLVER_THREADS + " value " + threadsValue, nfe);
+            }
+        }
+
+        return threads;
+    }
+
+    /**
+     * Obtain the canonical set of candidates from which a search starts.
+     * The set is maintained incrementally, only the candidates of
+     * generations that have been added, that took part in a solution since
+     * the last search or whose state is no longer the one their candidate
+     * was built for are rebuilt.  The state is checked since the framework
+     * applies a solution outside of the resolver's lock, a search may run
+     * before the generations of an earlier solution have changed state.
+     *
+     * @return the candidates of the canonical set
+     */
+    private Collection<Candidate> obtainCanonicalSet()
+    {
+        assert Thread.holdsLock(lock);
+
+        for (Generation generation : bundles)
+        {
+            Integer state = canonicalStates.get(generation);
+            if (state == null || state != generation.getState()) stale.add(generation);
+        }
+
+        for (Generation generation : stale)
+        {
+            int state = generation.getState();
+            Candidate candidate = ResolverUtils.createCandidate(generation);
+
+            if (candidate != null) canonicalSet.put(generation, candidate);
+            else canonicalSet.remove(generation);
+
+            canonicalStates.put(generation, state);
+        }
+        stale.clear();
+
+        return canonicalSet.values();
+    }
+
+    /**
+     * The generations of a solution change state once the framework has
+     * applied it, mark their candidates to be rebuilt before the next search.
+     *
+     * @param solutions the solutions that were found
+     */
+    private void markStale(Set<Solution> solutions)
+    {
+        assert Thread.holdsLock(lock);
+
+        for (Solution solution : solutions)
+        {
+            stale.add(solution.getBundle());
+            stale.addAll(solution.getFragments());
+        }
+    }
+
     private static Set<Solution> extractSolutions(CheckPoint result)
     {
         Set<Solution> solutions = new HashSet<Solution>();
@@ -331,8 +536,6 @@ public class DefaultResolver implements Resolver
     {
         LOGGER.entering(CLASS_NAME, "doResolve", checkPoint);
 
-        assert Thread.holdsLock(lock);
-
         List<UnBound> unResolved = checkPoint.getUnResolved();
 
         CheckPoint result = checkPoint;
@@ -528,19 +731,7 @@ public class DefaultResolver implements Resolver
         {
             ImportDescriptionWrapper targetImport = imports.remove(0);
 
-            boolean bootDelegate = false;
-
-            String packageName = targetImport.getPackageName();
-            for (String delegate : bootDelegates)
-            {
-                if ((delegate.endsWith(".") && packageName.regionMatches(0, delegate, 0, delegate.length() - 1)) || packageName.equals(delegate))
-                {
-                    bootDelegate = true;
-                    break;
-                }
-            }
-
-            if (bootDelegate)
+            if (bootDelegation.matches(targetImport.getPackageName()))
             {
                 CheckPoint result = resolveWires(checkPoint.newCheckPoint(targetImport));
 
@@ -563,7 +754,7 @@ public class DefaultResolver implements Resolver
                     }
                 }
 
-                for (ExportDescriptionWrapper candidateExport : ResolverUtils.collectEligibleExportsFromUsed(targetImport, checkPoint))
+                for (ExportDescriptionWrapper candidateExport : ResolverUtils.collectEligibleExportsFromUsed(targetImport, checkPoint, exportIndex))
                 {
                     if (matches(targetImport, candidateExport))
                     {
@@ -585,7 +776,7 @@ public class DefaultResolver implements Resolver
                     }
                 }
 
-                for (ExportDescriptionWrapper candidateExport : ResolverUtils.collectEligibleExportsFromUnused(targetImport, checkPoint))
+                for (ExportDescriptionWrapper candidateExport : ResolverUtils.collectEligibleExportsFromUnused(targetImport, checkPoint, exportIndex, canonicalSet))
                 {
                     if (matches(targetImport, candidateExport))
                     {
@@ -629,7 +820,7 @@ public class DefaultResolver implements Resolver
                     }
                 }
 
-                for (ExportDescriptionWrapper candidateExport : ResolverUtils.collectEligibleExportsFromUnresolved(targetImport, checkPoint))
+                for (ExportDescriptionWrapper candidateExport : ResolverUtils.collectEligibleExportsFromUnresolved(targetImport, checkPoint, exportIndex))
                 {
                     if (matches(targetImport, candidateExport))
                     {
@@ -688,8 +879,6 @@ public class DefaultResolver implements Resolver
         return checkPoint;
     }
 
-    static final Set<CandidateBundle> BUNDLES_SCANNED = new HashSet<CandidateBundle>();
-
     /**
      * Collect the implied constraints for a particular export for a particular
      * bundle.  The implied constraints are obtained by following the "uses"
@@ -699,37 +888,26 @@ public class DefaultResolver implements Resolver
      * @param candidate         the starting bundle
      * @return the set of implied constraints
      */
-    private Set<CandidateWiring> collectImpliedConstraints(ExportDescription exportDescription, Candidate candidate)
+    private static Set<CandidateWiring> collectImpliedConstraints(ExportDescription exportDescription, Candidate candidate)
     {
-        assert Thread.holdsLock(lock);
-
-        try
-        {
-            return doCollectImpliedConstraints(exportDescription, candidate);
-        }
-        finally
-        {
-            BUNDLES_SCANNED.clear();
-        }
+        return doCollectImpliedConstraints(exportDescription, candidate, new HashSet<CandidateBundle>());
     }
 
-    private Set<CandidateWiring> doCollectImpliedConstraints(ExportDescription exportDescription, Candidate candidate)
+    private static Set<CandidateWiring> doCollectImpliedConstraints(ExportDescription exportDescription, Candidate candidate, Set<CandidateBundle> scanned)
     {
-        assert Thread.holdsLock(lock);
-
         Set<CandidateWiring> result = new HashSet<CandidateWiring>();
 
         if (candidate instanceof CandidateBundle) return result;
 
         CandidateBundle candidateBundle = (CandidateBundle) candidate;
 
-        if (BUNDLES_SCANNED.contains(candidateBundle))
+        if (scanned.contains(candidateBundle))
         {
             return result;
         }
         else
         {
-            BUNDLES_SCANNED.add(candidateBundle);
+            scanned.add(candidateBundle);
         }
 
         for (String packageName : exportDescription.getUses())
@@ -740,7 +918,7 @@ public class DefaultResolver implements Resolver
                 {
                     result.add(wire);
 
-                    result.addAll(doCollectImpliedConstraints(wire.getExportDescription(), wire.getCandidate()));
+                    result.addAll(doCollectImpliedConstraints(wire.getExportDescription(), wire.getCandidate(), scanned));
                 }
             }
         }
@@ -0,0 +1,147 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.resolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.papoose.core.FragmentGeneration;
+import org.papoose.core.Generation;
+import org.papoose.core.descriptions.ExportDescription;
+import org.papoose.core.descriptions.ImportDescription;
+import org.papoose.core.descriptions.RequireDescription;
+import org.papoose.core.spi.ArchiveStore;
+
+
+/**
+ * Partitions unresolved generations into clusters that can be resolved
+ * independently of one another.  Two unresolved generations are in the same
+ * cluster if one could be wired to, required by or attached to the other,
+ * or if they share a symbolic name, directly or through other unresolved
+ * generations.  Generations that are already resolved are shared, read
+ * only, by all clusters and do not join them.
+ */
+class DependencyClusters
+{
+    private final Map<Generation, Generation> parents = new HashMap<Generation, Generation>();
+
+    /**
+     * Partition the generations to be resolved.
+     *
+     * @param generations  the generations to be resolved
+     * @param canonicalSet the canonical set of candidates the search starts from
+     * @return the clusters of generations to be resolved, each in the order the generations were given
+     */
+    static List<List<Generation>> partition(List<Generation> generations, Collection<Candidate> canonicalSet)
+    {
+        DependencyClusters clusters = new DependencyClusters();
+
+        Map<String, List<Generation>> exporters = new HashMap<String, List<Generation>>();
+        Map<String, List<Generation>> names = new HashMap<String, List<Generation>>();
+
+        for (Candidate candidate : canonicalSet)
+        {
+            if (!(candidate instanceof UnBound)) continue;
+
+            Generation generation = ((UnBound) candidate).getToBeResolved();
+
+            clusters.parents.put(generation, generation);
+
+            for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
+            {
+                for (String packageName : exportDescription.getPackageNames()) add(exporters, packageName, generation);
+            }
+
+            if (generation.getSymbolicName() != null) add(names, generation.getSymbolicName(), generation);
+        }
+
+        for (Generation generation : clusters.parents.keySet())
+        {
+            ArchiveStore archiveStore = generation.getArchiveStore();
+
+            clusters.union(generation, names.get(generation.getSymbolicName()));
+
+            for (ImportDescription importDescription : archiveStore.getImportDescriptions())
+            {
+                for (String packageName : importDescription.getPackageNames()) clusters.union(generation, exporters.get(packageName));
+            }
+
+            for (RequireDescription requireDescription : archiveStore.getRequireDescriptions())
+            {
+                clusters.union(generation, names.get(requireDescription.getSymbolName()));
+            }
+
+            if (generation instanceof FragmentGeneration)
+            {
+                clusters.union(generation, names.get(archiveStore.getFragmentDescription().getSymbolName()));
+            }
+        }
+
+        Map<Generation, List<Generation>> result = new LinkedHashMap<Generation, List<Generation>>();
+        for (Generation generation : generations)
+        {
+            Generation root = clusters.parents.containsKey(generation) ? clusters.find(generation) : generation;
+
+            add(result, root, generation);
+        }
+
+        return new ArrayList<List<Generation>>(result.values());
+    }
+
+    private void union(Generation generation, List<Generation> others)
+    {
+        if (others == null) return;
+
+        Generation root = find(generation);
+
+        for (Generation other : others)
+        {
+            Generation otherRoot = find(other);
+
+            if (otherRoot != root) parents.put(otherRoot, root);
+        }
+    }
+
+    private Generation find(Generation generation)
+    {
+        Generation root = generation;
+        while (parents.get(root) != root) root = parents.get(root);
+
+        while (generation != root)
+        {
+            Generation parent = parents.get(generation);
+            parents.put(generation, root);
+            generation = parent;
+        }
+
+        return root;
+    }
+
+    private static <K> void add(Map<K, List<Generation>> map, K key, Generation generation)
+    {
+        List<Generation> list = map.get(key);
+        if (list == null) map.put(key, list = new ArrayList<Generation>());
+
+        list.add(generation);
+    }
+
+    private DependencyClusters() { }
+}
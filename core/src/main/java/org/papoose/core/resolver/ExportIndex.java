@@ -0,0 +1,184 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.resolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+import org.papoose.core.Generation;
+import org.papoose.core.VersionRange;
+import org.papoose.core.descriptions.ExportDescription;
+
+
+/**
+ * An index of the packages exported by generations, keyed by package name.
+ * The exports of a package are kept in preference order, highest version
+ * first and then lowest bundle id, so that an import can be answered with a
+ * range query on its version range.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class ExportIndex
+{
+    private final Map<String, NavigableMap<Version, List<Export>>> index = new HashMap<String, NavigableMap<Version, List<Export>>>();
+
+    public void add(Generation generation)
+    {
+        assert generation != null;
+
+        for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
+        {
+            Export export = new Export(exportDescription, generation);
+
+            for (String packageName : exportDescription.getPackageNames())
+            {
+                NavigableMap<Version, List<Export>> versions = index.get(packageName);
+                if (versions == null) index.put(packageName, versions = new TreeMap<Version, List<Export>>(Collections.reverseOrder()));
+
+                List<Export> exports = versions.get(export.version);
+                if (exports == null) versions.put(export.version, exports = new ArrayList<Export>(1));
+
+                int i = 0;
+                while (i < exports.size() && exports.get(i).bundleId <= export.bundleId) i++;
+                exports.add(i, export);
+            }
+        }
+    }
+
+    public void remove(Generation generation)
+    {
+        assert generation != null;
+
+        for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
+        {
+            for (String packageName : exportDescription.getPackageNames())
+            {
+                NavigableMap<Version, List<Export>> versions = index.get(packageName);
+                if (versions == null) continue;
+
+                Iterator<List<Export>> iterator = versions.values().iterator();
+                while (iterator.hasNext())
+                {
+                    List<Export> exports = iterator.next();
+
+                    for (Iterator<Export> i = exports.iterator(); i.hasNext();) if (i.next().generation == generation) i.remove();
+
+                    if (exports.isEmpty()) iterator.remove();
+                }
+
+                if (versions.isEmpty()) index.remove(packageName);
+            }
+        }
+    }
+
+    public void clear()
+    {
+        index.clear();
+    }
+
+    /**
+     * Collect the exports of the imported package whose version is within
+     * the import's version range and whose mandatory attributes are all
+     * specified by the import.  The remaining attributes are not checked.
+     *
+     * @param targetImport the import to be satisfied
+     * @return the eligible exports in preference order
+     */
+    public List<Export> collect(ImportDescriptionWrapper targetImport)
+    {
+        NavigableMap<Version, List<Export>> versions = index.get(targetImport.getPackageName());
+        if (versions == null) return Collections.emptyList();
+
+        Map<String, Object> parameters = targetImport.getParameters();
+        VersionRange range = (VersionRange) parameters.get(Constants.VERSION_ATTRIBUTE);
+
+        Collection<List<Export>> candidates;
+        if (range == null)
+        {
+            candidates = versions.values();
+        }
+        else if (range.getEnd() == null)
+        {
+            candidates = versions.headMap(range.getStart(), range.isStartIncluding()).values();
+        }
+        else
+        {
+            candidates = versions.subMap(range.getEnd(), range.isEndIncluding(), range.getStart(), range.isStartIncluding()).values();
+        }
+
+        List<Export> result = new ArrayList<Export>();
+        for (List<Export> exports : candidates)
+        {
+            for (Export export : exports)
+            {
+                if (parameters.keySet().containsAll(export.mandatory)) result.add(export);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * An export description along with the generation that exports it and
+     * the precomputed attributes that the index is ordered and filtered by.
+     */
+    public static class Export
+    {
+        private final ExportDescription exportDescription;
+        private final Generation generation;
+        private final Version version;
+        private final long bundleId;
+        private final List<String> mandatory;
+
+        private Export(ExportDescription exportDescription, Generation generation)
+        {
+            Version version = (Version) exportDescription.getParameters().get(Constants.VERSION_ATTRIBUTE);
+
+            this.exportDescription = exportDescription;
+            this.generation = generation;
+            this.version = (version == null ? VersionRange.DEFAULT_VERSION : version);
+            this.bundleId = generation.getBundleId();
+            this.mandatory = exportDescription.getMandatory();
+        }
+
+        public ExportDescription getExportDescription()
+        {
+            return exportDescription;
+        }
+
+        public Generation getGeneration()
+        {
+            return generation;
+        }
+
+        @Override
+        public String toString()
+        {
+            return exportDescription.toString();
+        }
+    }
+}
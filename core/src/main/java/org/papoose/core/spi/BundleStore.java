@@ -17,6 +17,9 @@
 package org.papoose.core.spi;
 
 import java.io.File;
+import java.util.List;
+
+import org.osgi.framework.BundleException;
 
 import org.papoose.core.AutostartSetting;
 
@@ -39,4 +42,23 @@ public interface BundleStore
     AutostartSetting getAutostart();
 
     void setAutoStart(AutostartSetting setting);
+
+    /**
+     * Load the names of the classes that were recorded being loaded by a
+     * bundle generation during a previous framework start.
+     *
+     * @param key the key of the bundle generation, made up of its symbolic name, version and generation
+     * @return the recorded class names, in the order that they were loaded, or an empty list if no profile was recorded for the key
+     */
+    List<String> loadClassProfile(String key);
+
+    /**
+     * Save the names of the classes that were loaded by a bundle generation
+     * during framework start, replacing any previously saved profile.
+     *
+     * @param key        the key of the bundle generation, made up of its symbolic name, version and generation
+     * @param classNames the class names in the order that they were loaded
+     * @throws BundleException if the profile could not be saved
+     */
+    void saveClassProfile(String key, List<String> classNames) throws BundleException;
 }
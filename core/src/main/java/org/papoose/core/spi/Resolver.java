@@ -85,6 +85,16 @@ public interface Resolver
      */
     Set<Solution> resolve(Generation bundle) throws BundleException;
 
+    /**
+     * Resolve a set of bundles in a single search to obtain the solutions
+     * of the bundles that can be resolved.  Bundles that cannot be resolved,
+     * or that are not in the <code>INSTALLED</code> state, are skipped.
+     *
+     * @param bundles the bundles to resolve
+     * @return a set of solutions that is consistent with the requirements of the bundles that could be resolved
+     */
+    Set<Solution> resolve(Set<Generation> bundles);
+
     /**
      * @param bundle            the bundle that owns the dynamic import
      * @param importDescription a description of the dynamic import
@@ -0,0 +1,93 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.util;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * An immutable snapshot of a dictionary whose keys are looked up case
+ * insensitively.  Exact key matches are found by hashing, keys that differ
+ * in case are found by a case insensitive comparison.  Neither allocates.
+ * An exact match takes precedence, of several keys that only differ in case
+ * the first one enumerated answers the lookups that match none exactly.
+ */
+public final class CaseInsensitiveDictionary extends Dictionary<String, Object>
+{
+    private final Map<String, Object> exact = new HashMap<String, Object>();
+    private final Map<String, Object> caseInsensitive = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+
+    public CaseInsensitiveDictionary(Dictionary dictionary)
+    {
+        assert dictionary != null;
+
+        for (Enumeration enumeration = dictionary.keys(); enumeration.hasMoreElements();)
+        {
+            Object key = enumeration.nextElement();
+            Object value = dictionary.get(key);
+            String name = key.toString();
+
+            exact.put(name, value);
+
+            if (!caseInsensitive.containsKey(name)) caseInsensitive.put(name, value);
+        }
+    }
+
+    public int size()
+    {
+        return exact.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return exact.isEmpty();
+    }
+
+    public Enumeration<String> keys()
+    {
+        return Collections.enumeration(exact.keySet());
+    }
+
+    public Enumeration<Object> elements()
+    {
+        return Collections.enumeration(exact.values());
+    }
+
+    public Object get(Object key)
+    {
+        Object value = exact.get(key);
+
+        if (value == null && key != null) value = caseInsensitive.get(key.toString());
+
+        return value;
+    }
+
+    public Object put(String key, Object value)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object remove(Object key)
+    {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.util;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A set that is recorded as the additions and removals made to a base set
+ * which it shares, read only, with the sets it was forked from.  Forking
+ * only copies the additions and removals, the base is copied once they
+ * outgrow it.  A fork thus costs time proportional to the changes made
+ * since the base was last copied, and at most to the size of the set.
+ * <p/>
+ * Null elements and removing elements through the iterator are not
+ * supported.  This class is not thread safe.
+ */
+public class DeltaSet<E> extends AbstractSet<E>
+{
+    private final Set<E> base;
+    private final Set<E> added;
+    private final Set<Object> removed;
+
+    public DeltaSet()
+    {
+        this(Collections.<E>emptySet());
+    }
+
+    public DeltaSet(Collection<? extends E> collection)
+    {
+        this(new HashSet<E>(collection), new HashSet<E>(), new HashSet<Object>());
+    }
+
+    private DeltaSet(Set<E> base, Set<E> added, Set<Object> removed)
+    {
+        this.base = base;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * Create a copy of this set that shares its base with this set.
+     *
+     * @return a copy of this set
+     */
+    public DeltaSet<E> fork()
+    {
+        if (added.size() + removed.size() > base.size()) return new DeltaSet<E>(this);
+
+        return new DeltaSet<E>(base, new HashSet<E>(added), new HashSet<Object>(removed));
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return added.contains(o) || (base.contains(o) && !removed.contains(o));
+    }
+
+    @Override
+    public boolean add(E e)
+    {
+        if (contains(e)) return false;
+
+        return added.add(e);
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (added.remove(o)) return true;
+
+        return base.contains(o) && removed.add(o);
+    }
+
+    @Override
+    public int size()
+    {
+        return base.size() - removed.size() + added.size();
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        return new Iterator<E>()
+        {
+            private final Iterator<E> baseIterator = base.iterator();
+            private final Iterator<E> addedIterator = added.iterator();
+            private E next = advance();
+
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            public E next()
+            {
+                if (next == null) throw new NoSuchElementException();
+
+                E result = next;
+                next = advance();
+                return result;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            private E advance()
+            {
+                while (baseIterator.hasNext())
+                {
+                    E element = baseIterator.next();
+                    if (!removed.contains(element)) return element;
+                }
+
+                return addedIterator.hasNext() ? addedIterator.next() : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.util;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable prefix trie of package patterns, e.g. those of
+ * <code>org.osgi.framework.bootdelegation</code>.  A pattern is either an
+ * exact package name, a package name followed by <code>.*</code> which
+ * matches the package and all its sub-packages, or a lone <code>*</code>
+ * which matches all packages.
+ * <p/>
+ * Package names may be matched in either their dot or their slash
+ * separated form, no allocation is made during a match.
+ */
+public final class PackageTrie
+{
+    private final Node root = new Node();
+
+    public PackageTrie(String... patterns)
+    {
+        assert patterns != null;
+
+        for (String pattern : patterns)
+        {
+            pattern = pattern.trim();
+
+            if (pattern.length() == 0) continue;
+
+            if (pattern.equals("*"))
+            {
+                root.wildcard = true;
+                continue;
+            }
+
+            boolean wildcard = false;
+            if (pattern.endsWith(".*"))
+            {
+                wildcard = true;
+                pattern = pattern.substring(0, pattern.length() - 2);
+            }
+            else if (pattern.endsWith("."))
+            {
+                wildcard = true;
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+
+            Node node = root;
+            for (int i = 0; i < pattern.length(); i++) node = node.add(normalize(pattern.charAt(i)));
+
+            if (wildcard) node.wildcard = true;
+            else node.exact = true;
+        }
+    }
+
+    /**
+     * Check if a package name matches one of the patterns of this trie.
+     *
+     * @param packageName the package name, either dot or slash separated
+     * @return true if the package name matches a pattern
+     */
+    public boolean matches(String packageName)
+    {
+        Node node = root;
+
+        if (node.wildcard) return true;
+
+        for (int i = 0; i < packageName.length(); i++)
+        {
+            char c = normalize(packageName.charAt(i));
+
+            if (c == '.' && node.wildcard) return true;
+
+            node = node.get(c);
+
+            if (node == null) return false;
+        }
+
+        return node.exact || node.wildcard;
+    }
+
+    private static char normalize(char c)
+    {
+        return c == '/' ? '.' : c;
+    }
+
+    private static class Node
+    {
+        private final static char[] NO_KEYS = new char[0];
+        private final static Node[] NO_NODES = new Node[0];
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_NODES;
+        private boolean exact;
+        private boolean wildcard;
+
+        Node get(char c)
+        {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node add(char c)
+        {
+            int index = Arrays.binarySearch(keys, c);
+
+            if (index >= 0) return children[index];
+
+            index = -(index + 1);
+
+            char[] newKeys = new char[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            newKeys[index] = c;
+
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            newChildren[index] = new Node();
+
+            keys = newKeys;
+            children = newChildren;
+
+            return newChildren[index];
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.papoose.core.util;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +39,7 @@ import org.papoose.core.resolver.Candidate;
 import org.papoose.core.resolver.CandidateBundle;
 import org.papoose.core.resolver.CheckPoint;
 import org.papoose.core.resolver.ExportDescriptionWrapper;
+import org.papoose.core.resolver.ExportIndex;
 import org.papoose.core.resolver.ImportDescriptionWrapper;
 import org.papoose.core.resolver.Resolved;
 import org.papoose.core.resolver.UnBound;
@@ -62,26 +64,41 @@ public class ResolverUtils
 
         for (Generation generation : bundles)
         {
-            if (generation instanceof BundleGeneration)
-            {
-                BundleGeneration bundleGeneration = (BundleGeneration) generation;
+            Candidate candidate = createCandidate(generation);
+            if (candidate != null) result.add(candidate);
+        }
 
-                if (generation.getState() != Bundle.INSTALLED)
-                {
-                    result.add(new Resolved(bundleGeneration));
-                }
-                else
-                {
-                    result.add(new UnBound(generation));
-                }
+        return result;
+    }
+
+    /**
+     * Create the candidate that represents a generation in the canonical
+     * set, given the generation's current state.
+     *
+     * @param generation the generation
+     * @return the candidate or null if the generation does not belong in the canonical set
+     */
+    public static Candidate createCandidate(Generation generation)
+    {
+        if (generation instanceof BundleGeneration)
+        {
+            BundleGeneration bundleGeneration = (BundleGeneration) generation;
+
+            if (generation.getState() != Bundle.INSTALLED)
+            {
+                return new Resolved(bundleGeneration);
             }
-            else if (generation instanceof FragmentGeneration && generation.getState() == Bundle.INSTALLED)
+            else
             {
-                result.add(new UnBound(generation));
+                return new UnBound(generation);
             }
         }
+        else if (generation instanceof FragmentGeneration && generation.getState() == Bundle.INSTALLED)
+        {
+            return new UnBound(generation);
+        }
 
-        return result;
+        return null;
     }
 
     public static List<FragmentGeneration> collectAvailableFragments(BundleGeneration host, Set<Candidate> canonicalSet)
@@ -242,98 +259,68 @@ public class ResolverUtils
         return result;
     }
 
-    public static List<ExportDescriptionWrapper> collectEligibleExportsFromUsed(ImportDescriptionWrapper targetImport, CheckPoint checkPoint)
+    public static List<ExportDescriptionWrapper> collectEligibleExportsFromUsed(ImportDescriptionWrapper targetImport, CheckPoint checkPoint, ExportIndex exportIndex)
     {
         BoundHost resolving = checkPoint.getResolving();
-        String importPackage = targetImport.getPackageName();
         List<ExportDescriptionWrapper> results = new ArrayList<ExportDescriptionWrapper>();
 
+        List<ExportIndex.Export> exports = exportIndex.collect(targetImport);
+        if (exports.isEmpty()) return results;
+
+        // an export belongs to the used candidate that hosts its generation, hosts and their fragments alike
+        Map<Generation, CandidateBundle> used = new HashMap<Generation, CandidateBundle>();
         for (CandidateBundle candidateBundle : checkPoint.getUsed())
         {
-            if (!candidateBundle.equals(resolving))
+            if (candidateBundle.equals(resolving)) continue;
+
+            used.put(candidateBundle.getBundleGeneration(), candidateBundle);
+            for (FragmentGeneration fragmentGeneration : candidateBundle.getFragments()) used.put(fragmentGeneration, candidateBundle);
+        }
+
+        for (ExportIndex.Export export : exports)
+        {
+            CandidateBundle candidateBundle = used.get(export.getGeneration());
+
+            if (candidateBundle != null)
             {
-                for (ExportDescriptionWrapper exportDescriptionWrapper : candidateBundle.getExports())
-                {
-                    for (String exportPackage : exportDescriptionWrapper.getExportDescription().getPackageNames())
-                    {
-                        if (importPackage.equals(exportPackage))
-                        {
-                            results.add(exportDescriptionWrapper);
-                            break;
-                        }
-                    }
-                }
+                ExportDescriptionWrapper exportDescriptionWrapper = new ExportDescriptionWrapper(export.getExportDescription(), (Candidate) candidateBundle);
+
+                if (candidateBundle.getExports().contains(exportDescriptionWrapper)) results.add(exportDescriptionWrapper);
             }
         }
+
         return results;
     }
 
-    public static List<ExportDescriptionWrapper> collectEligibleExportsFromUnused(ImportDescriptionWrapper targetImport, CheckPoint checkPoint)
+    public static List<ExportDescriptionWrapper> collectEligibleExportsFromUnused(ImportDescriptionWrapper targetImport, CheckPoint checkPoint, ExportIndex exportIndex, Map<Generation, Candidate> canonicalSet)
     {
-        String importPackage = targetImport.getPackageName();
+        Set<Candidate> unused = checkPoint.getUnused();
         List<ExportDescriptionWrapper> results = new ArrayList<ExportDescriptionWrapper>();
 
-        for (Candidate candidate : checkPoint.getUnused())
+        for (ExportIndex.Export export : exportIndex.collect(targetImport))
         {
-            if (candidate instanceof Resolved)
-            {
-                Resolved resolved = (Resolved) candidate;
-                Generation generation = resolved.getBundleGeneration();
-
-                for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
-                {
-                    for (String exportPackage : exportDescription.getPackageNames())
-                    {
-                        if (importPackage.equals(exportPackage))
-                        {
-                            results.add(new ExportDescriptionWrapper(exportDescription, candidate));
-                            break;
-                        }
-                    }
-                }
-            }
-            else
-            {
-                UnBound unBound = (UnBound) candidate;
-                Generation generation = unBound.getToBeResolved();
+            Candidate candidate = canonicalSet.get(export.getGeneration());
 
-                for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
-                {
-                    for (String exportPackage : exportDescription.getPackageNames())
-                    {
-                        if (importPackage.equals(exportPackage))
-                        {
-                            results.add(new ExportDescriptionWrapper(exportDescription, candidate));
-                            break;
-                        }
-                    }
-                }
-            }
+            if (candidate != null && unused.contains(candidate)) results.add(new ExportDescriptionWrapper(export.getExportDescription(), candidate));
         }
 
         return results;
     }
 
-    public static List<ExportDescriptionWrapper> collectEligibleExportsFromUnresolved(ImportDescriptionWrapper targetImport, CheckPoint checkPoint)
+    public static List<ExportDescriptionWrapper> collectEligibleExportsFromUnresolved(ImportDescriptionWrapper targetImport, CheckPoint checkPoint, ExportIndex exportIndex)
     {
-        String importPackage = targetImport.getPackageName();
         List<ExportDescriptionWrapper> results = new ArrayList<ExportDescriptionWrapper>();
 
-        for (UnBound unBound : checkPoint.getUnResolved())
+        if (checkPoint.getUnResolved().isEmpty()) return results;
+
+        Map<Generation, UnBound> unResolved = new HashMap<Generation, UnBound>();
+        for (UnBound unBound : checkPoint.getUnResolved()) unResolved.put(unBound.getToBeResolved(), unBound);
+
+        for (ExportIndex.Export export : exportIndex.collect(targetImport))
         {
-            Generation generation = unBound.getToBeResolved();
+            UnBound unBound = unResolved.get(export.getGeneration());
 
-            for (ExportDescription exportDescription : generation.getArchiveStore().getExportDescriptions())
-            {
-                for (String exportPackage : exportDescription.getPackageNames())
-                {
-                    if (importPackage.equals(exportPackage))
-                    {
-                        results.add(new ExportDescriptionWrapper(exportDescription, unBound));
-                        break;
-                    }
-                }
-            }
+            if (unBound != null) results.add(new ExportDescriptionWrapper(export.getExportDescription(), unBound));
         }
 
         return results;
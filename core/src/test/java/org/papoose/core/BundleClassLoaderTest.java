@@ -16,17 +16,623 @@
  */
 package org.papoose.core;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.PermissionCollection;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.xbean.classloader.ResourceLocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.osgi.framework.BundleException;
 
+import org.papoose.core.descriptions.DynamicDescription;
+import org.papoose.core.descriptions.ExportDescription;
+import org.papoose.core.descriptions.ImportDescription;
+import org.papoose.core.descriptions.LazyActivationDescription;
+import org.papoose.core.mock.MockArchiveStore;
+import org.papoose.core.mock.MockBundleStore;
+import org.papoose.core.mock.MockResourceLocation;
+import org.papoose.core.mock.MockStore;
+import org.papoose.core.resolver.DefaultResolver;
+import org.papoose.core.spi.ArchiveStore;
+import org.papoose.core.spi.BundleStore;
+import org.papoose.core.spi.ProtectionDomainFactory;
+import org.papoose.core.spi.Resolver;
+import org.papoose.core.spi.Solution;
+
 
 /**
  *
  */
 public class BundleClassLoaderTest
 {
+    private ScheduledThreadPoolExecutor executorService;
+    private Papoose framework;
+
     @Test
     public void testLoad() throws BundleException
     {
     }
+
+    @Test
+    public void testNullProtectionDomain() throws Exception
+    {
+        framework.getBundleManager().setProtectionDomainFactory(new ProtectionDomainFactory()
+        {
+            public ProtectionDomain assignProtectionDomain(BundleGeneration bundle, CodeSource codesource, PermissionCollection permissions)
+            {
+                return null;
+            }
+        });
+
+        BundleClassLoader loader = createLoader(1, new TestArchiveStore(false), new MockResourceLocation("one").add(Anvil.class).add(Dynamite.class));
+
+        Class anvil = loader.delegateLoadClass(Anvil.class.getName());
+        Class dynamite = loader.delegateLoadClass(Dynamite.class.getName());
+
+        Assert.assertSame(loader, anvil.getClassLoader());
+        Assert.assertSame(loader, dynamite.getClassLoader());
+        Assert.assertNotNull(anvil.getProtectionDomain());
+    }
+
+    @Test
+    public void testSharedProtectionDomain() throws Exception
+    {
+        final AtomicInteger assigned = new AtomicInteger();
+        framework.getBundleManager().setProtectionDomainFactory(new ProtectionDomainFactory()
+        {
+            public ProtectionDomain assignProtectionDomain(BundleGeneration bundle, CodeSource codesource, PermissionCollection permissions)
+            {
+                assigned.incrementAndGet();
+                return new ProtectionDomain(codesource, permissions);
+            }
+        });
+
+        BundleClassLoader loader = createLoader(1, new TestArchiveStore(false),
+                                                new MockResourceLocation("one").add(Anvil.class).add(Dynamite.class).add("com/acme/Coyote.class", generateClass("com/acme/Coyote", "java/lang/Object")),
+                                                new MockResourceLocation("two").add("com/acme/Spring.class", generateClass("com/acme/Spring", "java/lang/Object")));
+
+        Class anvil = loader.delegateLoadClass(Anvil.class.getName());
+        Class dynamite = loader.delegateLoadClass(Dynamite.class.getName());
+
+        Assert.assertSame(anvil.getProtectionDomain(), dynamite.getProtectionDomain());
+        Assert.assertEquals(1, assigned.get());
+
+        Class spring = loader.delegateLoadClass("com.acme.Spring");
+
+        Assert.assertNotSame(anvil.getProtectionDomain(), spring.getProtectionDomain());
+        Assert.assertEquals(2, assigned.get());
+
+        framework.getBundleManager().permissionsChanged();
+
+        Class coyote = loader.delegateLoadClass("com.acme.Coyote");
+
+        Assert.assertNotSame(anvil.getProtectionDomain(), coyote.getProtectionDomain());
+        Assert.assertEquals(coyote.getProtectionDomain().getCodeSource(), anvil.getProtectionDomain().getCodeSource());
+        Assert.assertEquals(3, assigned.get());
+    }
+
+    @Test
+    public void testFirstResource() throws Exception
+    {
+        MockResourceLocation one = new MockResourceLocation("one").add("com/acme/data.txt", new byte[0]);
+        MockResourceLocation two = new MockResourceLocation("two").add("com/acme/data.txt", new byte[0]);
+        BundleClassLoader loader = createLoader(1, new TestArchiveStore(false), one, two);
+
+        URL url = loader.getResource("com/acme/data.txt");
+
+        Assert.assertEquals(new URL(one.getCodeSource(), "com/acme/data.txt"), url);
+        Assert.assertEquals(1, one.getProbes());
+        Assert.assertEquals(0, two.getProbes());
+
+        Enumeration<URL> urls = loader.findResources("com/acme/data.txt");
+
+        Assert.assertEquals(url, urls.nextElement());
+        Assert.assertEquals(0, two.getProbes());
+        Assert.assertEquals(new URL(two.getCodeSource(), "com/acme/data.txt"), urls.nextElement());
+        Assert.assertFalse(urls.hasMoreElements());
+        Assert.assertEquals(1, two.getProbes());
+    }
+
+    @Test
+    public void testPreloadIntoLazyExporter() throws Exception
+    {
+        BundleClassLoader exporter = createLoader(1, new TestArchiveStore(true), Collections.<Wire>emptySet(), new String[]{ "com.acme" }, Collections.<DynamicDescription>emptyList(),
+                                                  new MockResourceLocation("exporter").add("com/acme/Base.class", generateClass("com/acme/Base", "java/lang/Object")));
+
+        Wire wire = new Wire("com.acme", new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap()), exporter.getBundleGeneration());
+
+        BundleClassLoader importer = createLoader(2, new TestArchiveStore(false), Collections.singleton(wire), new String[0], Collections.<DynamicDescription>emptyList(),
+                                                  new MockResourceLocation("importer").add("com/acme/impl/Importer.class", generateClass("com/acme/impl/Importer", "com/acme/Base")));
+
+        Assert.assertEquals(0, importer.preload(Collections.singletonList("com.acme.impl.Importer")));
+
+        Class importerClass = importer.delegateLoadClass("com.acme.impl.Importer");
+
+        Assert.assertSame(importer, importerClass.getClassLoader());
+        Assert.assertSame(exporter, importerClass.getSuperclass().getClassLoader());
+    }
+
+    @Test
+    public void testWiredPackage() throws Exception
+    {
+        MockResourceLocation exporterLocation = new MockResourceLocation("exporter").add("com/acme/Base.class", generateClass("com/acme/Base", "java/lang/Object"))
+                .add("com/acme/Hidden.class", generateClass("com/acme/Hidden", "java/lang/Object"));
+        BundleClassLoader exporter = createLoader(1, new TestArchiveStore(false), Collections.<Wire>emptySet(), new String[]{ "com.acme" }, Collections.<DynamicDescription>emptyList(), exporterLocation);
+
+        ExportDescription description = new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap());
+        description.setExclude(Collections.singletonList(new String[]{ "Hidden" }));
+        Wire wire = new Wire("com.acme", description, exporter.getBundleGeneration());
+
+        MockResourceLocation importerLocation = new MockResourceLocation("importer").add("com/acme/Hidden.class", generateClass("com/acme/Hidden", "java/lang/Object"));
+        BundleClassLoader importer = createLoader(2, new TestArchiveStore(false), Collections.singleton(wire), new String[0], Collections.<DynamicDescription>emptyList(), importerLocation);
+
+        Assert.assertSame(exporter, importer.delegateLoadClass("com.acme.Base").getClassLoader());
+        Assert.assertEquals(0, importerLocation.getProbes());
+
+        Assert.assertSame(importer, importer.delegateLoadClass("com.acme.Hidden").getClassLoader());
+        Assert.assertEquals(1, importerLocation.getProbes());
+    }
+
+    @Test
+    public void testExcludedClassNotFound() throws Exception
+    {
+        MockResourceLocation exporterLocation = new MockResourceLocation("exporter").add("com/acme/Base.class", generateClass("com/acme/Base", "java/lang/Object"))
+                .add("com/acme/Hidden.class", generateClass("com/acme/Hidden", "java/lang/Object"));
+        BundleClassLoader exporter = createLoader(1, new TestArchiveStore(false), Collections.<Wire>emptySet(), new String[]{ "com.acme" }, Collections.<DynamicDescription>emptyList(), exporterLocation);
+
+        ExportDescription description = new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap());
+        description.setExclude(Collections.singletonList(new String[]{ "Hidden" }));
+        Wire wire = new Wire("com.acme", description, exporter.getBundleGeneration());
+
+        BundleClassLoader importer = createLoader(2, new TestArchiveStore(false), Collections.singleton(wire), new String[0], Collections.<DynamicDescription>emptyList(), new MockResourceLocation("importer"));
+
+        Assert.assertSame(exporter, importer.delegateLoadClass("com.acme.Base").getClassLoader());
+
+        assertClassNotFound(importer, "com.acme.Hidden");
+        Assert.assertEquals(1, exporterLocation.getProbes());
+    }
+
+    @Test
+    public void testExcludedResourceNotFound() throws Exception
+    {
+        BundleClassLoader exporter = createLoader(1, new TestArchiveStore(false), Collections.<Wire>emptySet(), new String[]{ "com.acme" }, Collections.<DynamicDescription>emptyList(),
+                                                  new MockResourceLocation("exporter").add("com/acme/data.txt", new byte[0]).add("com/acme/hidden.txt", new byte[0]));
+
+        ExportDescription description = new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap());
+        description.setExclude(Collections.singletonList(new String[]{ "hidden", "" }));
+        Wire wire = new Wire("com.acme", description, exporter.getBundleGeneration());
+
+        BundleClassLoader importer = createLoader(2, new TestArchiveStore(false), Collections.singleton(wire), new String[0], Collections.<DynamicDescription>emptyList(), new MockResourceLocation("importer"));
+
+        Assert.assertNotNull(importer.getResource("com/acme/data.txt"));
+        Assert.assertNull(importer.getResource("com/acme/hidden.txt"));
+        Assert.assertFalse(importer.findResources("com/acme/hidden.txt").hasMoreElements());
+    }
+
+    @Test
+    public void testCyclicWires() throws Exception
+    {
+        BundleGeneration first = createGeneration(new MockBundleStore(1, "mock:location1"), new TestArchiveStore(false));
+        BundleGeneration second = createGeneration(new MockBundleStore(2, "mock:location2"), new TestArchiveStore(false));
+
+        final BundleClassLoader one = createLoader(first, Collections.singleton(new Wire("com.acme.b", new ExportDescription(Collections.singleton("com.acme.b"), Collections.<String, Object>emptyMap()), second)),
+                                                   new String[]{ "com.acme.a" }, Collections.<DynamicDescription>emptyList(),
+                                                   new MockResourceLocation("one").add("com/acme/a/Base.class", generateClass("com/acme/a/Base", "java/lang/Object"))
+                                                           .add("com/acme/a/Impl.class", generateClass("com/acme/a/Impl", "com/acme/b/Base")));
+        final BundleClassLoader two = createLoader(second, Collections.singleton(new Wire("com.acme.a", new ExportDescription(Collections.singleton("com.acme.a"), Collections.<String, Object>emptyMap()), first)),
+                                                   new String[]{ "com.acme.b" }, Collections.<DynamicDescription>emptyList(),
+                                                   new MockResourceLocation("two").add("com/acme/b/Base.class", generateClass("com/acme/b/Base", "java/lang/Object"))
+                                                           .add("com/acme/b/Impl.class", generateClass("com/acme/b/Impl", "com/acme/a/Base")));
+
+        Assert.assertTrue(one.isRegisteredAsParallelCapable());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final Class[] loaded = new Class[4];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int index = i;
+            threads[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        if (index % 2 == 0) loaded[index] = one.loadClass("com.acme.a.Impl");
+                        else loaded[index] = two.loadClass("com.acme.b.Impl");
+                    }
+                    catch (Exception ignore)
+                    {
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) thread.join(10000);
+        for (Thread thread : threads) Assert.assertFalse(thread.isAlive());
+
+        Assert.assertSame(one, loaded[0].getClassLoader());
+        Assert.assertSame(two, loaded[0].getSuperclass().getClassLoader());
+        Assert.assertSame(loaded[0], loaded[2]);
+        Assert.assertSame(two, loaded[1].getClassLoader());
+        Assert.assertSame(one, loaded[1].getSuperclass().getClassLoader());
+        Assert.assertSame(loaded[1], loaded[3]);
+    }
+
+    @Test
+    public void testMissCache() throws Exception
+    {
+        MockResourceLocation location = new MockResourceLocation("one");
+        BundleClassLoader loader = createLoader(1, new TestArchiveStore(false), location);
+
+        assertClassNotFound(loader, "com.acme.Missing");
+        Assert.assertEquals(1, location.getProbes());
+
+        assertClassNotFound(loader, "com.acme.Missing");
+        Assert.assertEquals(1, location.getProbes());
+
+        Assert.assertNull(loader.getResource("com/acme/missing.txt"));
+        Assert.assertEquals(2, location.getProbes());
+
+        Assert.assertNull(loader.getResource("com/acme/missing.txt"));
+        Assert.assertEquals(2, location.getProbes());
+
+        framework.getBundleManager().wiringChanged();
+
+        assertClassNotFound(loader, "com.acme.Missing");
+        Assert.assertEquals(3, location.getProbes());
+
+        Assert.assertNull(loader.getResource("com/acme/missing.txt"));
+        Assert.assertEquals(4, location.getProbes());
+
+        location.add("com/acme/missing.txt", new byte[0]);
+        framework.getBundleManager().wiringChanged();
+
+        Assert.assertNotNull(loader.getResource("com/acme/missing.txt"));
+    }
+
+    @Test
+    public void testFailedDynamicImport() throws Exception
+    {
+        CountingResolver resolver = new CountingResolver();
+        restart(resolver);
+
+        List<DynamicDescription> dynamicImports = Collections.singletonList(new DynamicDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap()));
+        BundleClassLoader loader = createLoader(1, new TestArchiveStore(false), Collections.<Wire>emptySet(), new String[0], dynamicImports, new MockResourceLocation("one"));
+
+        assertClassNotFound(loader, "com.acme.Missing");
+        Assert.assertEquals(1, resolver.getCount());
+
+        assertClassNotFound(loader, "com.acme.Other");
+        Assert.assertNull(loader.getResource("com/acme/missing.txt"));
+        Assert.assertEquals(1, resolver.getCount());
+
+        framework.getBundleManager().wiringChanged();
+
+        assertClassNotFound(loader, "com.acme.Missing");
+        Assert.assertEquals(1, resolver.getCount());
+
+        assertClassNotFound(loader, "com.acme.impl.Missing");
+        Assert.assertEquals(1, resolver.getCount());
+    }
+
+    @Test
+    public void testProfile() throws Exception
+    {
+        BundleClassLoader loader = createLoader(1, new TestArchiveStore(false), new MockResourceLocation("one").add(Anvil.class).add(Dynamite.class));
+
+        Assert.assertNull(loader.stopProfile());
+
+        loader.startProfile();
+
+        loader.delegateLoadClass(Dynamite.class.getName());
+        loader.delegateLoadClass(Anvil.class.getName());
+
+        List<String> classNames = loader.stopProfile();
+
+        Assert.assertEquals(Arrays.asList(Dynamite.class.getName(), Anvil.class.getName()), classNames);
+        Assert.assertNull(loader.stopProfile());
+
+        MockResourceLocation location = new MockResourceLocation("two").add(Anvil.class).add(Dynamite.class);
+        loader = createLoader(2, new TestArchiveStore(false), location);
+
+        Assert.assertEquals(2, loader.preload(classNames));
+        Assert.assertEquals(0, loader.preload(classNames));
+        Assert.assertEquals(2, location.getProbes());
+
+        Assert.assertSame(loader, loader.delegateLoadClass(Anvil.class.getName()).getClassLoader());
+        Assert.assertEquals(2, location.getProbes());
+
+        loader = createLoader(3, new TestArchiveStore(true), new MockResourceLocation("three").add(Anvil.class).add(Dynamite.class));
+
+        Assert.assertEquals(0, loader.preload(classNames));
+        Assert.assertSame(loader, loader.delegateLoadClass(Anvil.class.getName()).getClassLoader());
+    }
+
+    @Test
+    public void testProfiler() throws Exception
+    {
+        MockBundleStore bundleStore = new MockBundleStore(1, "mock:location1");
+        ClassLoadingProfiler profiler = new ClassLoadingProfiler(1);
+        try
+        {
+            BundleClassLoader loader = createLoader(bundleStore, new TestArchiveStore(false), new MockResourceLocation("one").add(Anvil.class).add(Dynamite.class));
+
+            Assert.assertNull(profiler.resolved(loader.getBundleGeneration()));
+
+            loader.delegateLoadClass(Anvil.class.getName());
+
+            profiler.save(Collections.singleton(loader.getBundleGeneration().getBundleController()));
+
+            Assert.assertNull(loader.stopProfile());
+        }
+        finally
+        {
+            profiler.stop(Collections.<BundleController>emptySet());
+        }
+
+        profiler = new ClassLoadingProfiler(1);
+        try
+        {
+            MockResourceLocation location = new MockResourceLocation("one").add(Anvil.class).add(Dynamite.class);
+            BundleClassLoader loader = createLoader(bundleStore, new TestArchiveStore(false), location);
+
+            Future<Integer> preloaded = profiler.resolved(loader.getBundleGeneration());
+
+            Assert.assertEquals(Integer.valueOf(1), preloaded.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, location.getProbes());
+
+            Assert.assertSame(loader, loader.delegateLoadClass(Anvil.class.getName()).getClassLoader());
+            Assert.assertEquals(1, location.getProbes());
+
+            BundleClassLoader lazy = createLoader(bundleStore, new TestArchiveStore(true), new MockResourceLocation("lazy").add(Anvil.class));
+
+            Assert.assertNull(profiler.resolved(lazy.getBundleGeneration()));
+            Assert.assertNull(lazy.stopProfile());
+
+            profiler.stop(Collections.singleton(loader.getBundleGeneration().getBundleController()));
+
+            Assert.assertNull(loader.stopProfile());
+        }
+        finally
+        {
+            profiler.stop(Collections.<BundleController>emptySet());
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception
+    {
+        restart(new CountingResolver());
+
+        ClassLoadingMetricsImpl metrics = new ClassLoadingMetricsImpl();
+        framework.getBundleManager().setClassLoadingMetrics(metrics);
+
+        BundleClassLoader exporter = createLoader(1, new TestArchiveStore(false), Collections.<Wire>emptySet(), new String[]{ "com.acme" }, Collections.<DynamicDescription>emptyList(),
+                                                  new MockResourceLocation("exporter").add("com/acme/Base.class", generateClass("com/acme/Base", "java/lang/Object")));
+
+        Wire wire = new Wire("com.acme", new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap()), exporter.getBundleGeneration());
+
+        List<DynamicDescription> dynamicImports = Collections.singletonList(new DynamicDescription(Collections.singleton("com.acme.*"), Collections.<String, Object>emptyMap()));
+        BundleClassLoader importer = createLoader(2, new TestArchiveStore(false), Collections.singleton(wire), new String[0], dynamicImports, new MockResourceLocation("importer"));
+
+        importer.delegateLoadClass("com.acme.Base");
+
+        Assert.assertEquals(1, metrics.obtain(2).getWireDelegatedLoads());
+        Assert.assertEquals(0, metrics.obtain(2).getClassPathProbes());
+        Assert.assertEquals(1, metrics.obtain(1).getClassPathProbes());
+        Assert.assertEquals(1, metrics.obtain(1).getClassesDefined());
+
+        assertClassNotFound(importer, "com.acme.impl.Missing");
+
+        Assert.assertEquals(1, metrics.obtain(2).getClassPathProbes());
+        Assert.assertEquals(1, metrics.obtain(2).getMisses());
+        Assert.assertEquals(0, metrics.obtain(2).getDynamicImportResolutions());
+
+        assertClassNotFound(importer, "com.acme.impl.Missing");
+
+        Assert.assertEquals(1, metrics.obtain(2).getClassPathProbes());
+        Assert.assertEquals(2, metrics.obtain(2).getMisses());
+        Assert.assertEquals(0, metrics.obtain(2).getDynamicImportResolutions());
+    }
+
+    BundleClassLoader createLoader(long bundleId, ArchiveStore archiveStore, ResourceLocation... locations) throws BundleException
+    {
+        return createLoader(bundleId, archiveStore, Collections.<Wire>emptySet(), new String[0], Collections.<DynamicDescription>emptyList(), locations);
+    }
+
+    BundleClassLoader createLoader(long bundleId, ArchiveStore archiveStore, Set<Wire> wires, String[] exportedPackages, List<DynamicDescription> dynamicImports, ResourceLocation... locations) throws BundleException
+    {
+        return createLoader(new MockBundleStore(bundleId, "mock:location" + bundleId), archiveStore, wires, exportedPackages, dynamicImports, locations);
+    }
+
+    BundleClassLoader createLoader(BundleStore bundleStore, ArchiveStore archiveStore, ResourceLocation... locations) throws BundleException
+    {
+        return createLoader(bundleStore, archiveStore, Collections.<Wire>emptySet(), new String[0], Collections.<DynamicDescription>emptyList(), locations);
+    }
+
+    BundleClassLoader createLoader(BundleStore bundleStore, ArchiveStore archiveStore, Set<Wire> wires, String[] exportedPackages, List<DynamicDescription> dynamicImports, ResourceLocation... locations) throws BundleException
+    {
+        return createLoader(createGeneration(bundleStore, archiveStore), wires, exportedPackages, dynamicImports, locations);
+    }
+
+    BundleClassLoader createLoader(BundleGeneration bundleGeneration, Set<Wire> wires, String[] exportedPackages, List<DynamicDescription> dynamicImports, ResourceLocation... locations) throws BundleException
+    {
+        ArchiveStore archiveStore = bundleGeneration.getArchiveStore();
+        BundleClassLoader loader = new BundleClassLoader(framework,
+                                                         bundleGeneration,
+                                                         wires,
+                                                         Collections.<Wire>emptyList(),
+                                                         exportedPackages,
+                                                         dynamicImports,
+                                                         Arrays.asList(locations),
+                                                         new HashSet<ArchiveStore>(Collections.singleton(archiveStore)));
+
+        bundleGeneration.setClassLoader(loader);
+
+        return loader;
+    }
+
+    BundleGeneration createGeneration(BundleStore bundleStore, ArchiveStore archiveStore)
+    {
+        BundleController bundleController = new BundleController(framework, bundleStore);
+        BundleGeneration bundleGeneration = new BundleGeneration(bundleController, archiveStore);
+
+        bundleController.setCurrentGeneration(bundleGeneration);
+
+        return bundleGeneration;
+    }
+
+    private static void assertClassNotFound(BundleClassLoader loader, String className)
+    {
+        try
+        {
+            loader.delegateLoadClass(className);
+            Assert.fail("Should have thrown a ClassNotFoundException");
+        }
+        catch (ClassNotFoundException ignore)
+        {
+        }
+    }
+
+    private void restart(Resolver resolver) throws Exception
+    {
+        framework.stop();
+        framework.waitForStop(0);
+
+        framework = new Papoose(new MockStore(), executorService, new Properties());
+        framework.setResolver(resolver);
+
+        framework.start();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        executorService = new ScheduledThreadPoolExecutor(5);
+        framework = new Papoose(new MockStore(), executorService, new Properties());
+
+        framework.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        framework.stop();
+        framework.waitForStop(0);
+
+        executorService.shutdownNow();
+
+        executorService = null;
+        framework = null;
+    }
+
+    /**
+     * Generate the class file of an empty class, for classes whose package
+     * must not be boot delegated.
+     *
+     * @param name      the internal name of the class
+     * @param superName the internal name of its super class
+     * @return the class file
+     */
+    static byte[] generateClass(String name, String superName) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(name);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF(superName);
+        out.writeByte(7);
+        out.writeShort(3);
+
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    static class TestArchiveStore extends MockArchiveStore
+    {
+        private final LazyActivationDescription lazyActivationDescription;
+
+        TestArchiveStore(boolean lazy)
+        {
+            this.lazyActivationDescription = new LazyActivationDescription(lazy);
+        }
+
+        @Override
+        public LazyActivationDescription getLazyActivationDescription()
+        {
+            return lazyActivationDescription;
+        }
+    }
+
+    /**
+     * Counts the attempts to resolve dynamic imports, none of which succeed.
+     */
+    static class CountingResolver extends DefaultResolver
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        int getCount()
+        {
+            return count.get();
+        }
+
+        @Override
+        public Set<Solution> resolve(BundleGeneration bundleGeneration, ImportDescription importDescription)
+        {
+            count.incrementAndGet();
+            return Collections.emptySet();
+        }
+    }
+
+    public static class Anvil
+    {
+    }
+
+    public static class Dynamite
+    {
+    }
 }
@@ -0,0 +1,345 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.apache.xbean.classloader.ResourceLocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+import org.papoose.core.descriptions.DynamicDescription;
+import org.papoose.core.descriptions.ExportDescription;
+import org.papoose.core.mock.MockBundleStore;
+import org.papoose.core.mock.MockResourceLocation;
+import org.papoose.core.mock.MockStore;
+import org.papoose.core.spi.ArchiveStore;
+import org.papoose.core.spi.BundleStore;
+
+
+/**
+ *
+ */
+public class ServiceRegistryTest
+{
+    private final static String ANVIL = Anvil.class.getName();
+    private final static String DYNAMITE = Dynamite.class.getName();
+    private ScheduledThreadPoolExecutor executorService;
+    private Papoose framework;
+    private ServiceRegistry registry;
+    private BundleController bundle;
+
+    @Test
+    public void testClassIndex() throws Exception
+    {
+        ServiceRegistration anvil = register(bundle, new String[]{ ANVIL }, new Acme(), null);
+        ServiceRegistration both = register(bundle, new String[]{ ANVIL, DYNAMITE }, new Acme(), null);
+        ServiceRegistration dynamite = register(bundle, new String[]{ DYNAMITE }, new Acme(), null);
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, null), anvil, both);
+        assertReferences(registry.getServiceReferences(bundle, DYNAMITE, null), both, dynamite);
+        assertReferences(registry.getAllServiceReferences(null, null), anvil, both, dynamite);
+        Assert.assertNull(registry.getServiceReferences(bundle, Acme.class.getName(), null));
+
+        both.unregister();
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, null), anvil);
+        assertReferences(registry.getServiceReferences(bundle, DYNAMITE, null), dynamite);
+        assertReferences(registry.getAllServiceReferences(null, null), anvil, dynamite);
+
+        anvil.unregister();
+
+        Assert.assertNull(registry.getServiceReferences(bundle, ANVIL, null));
+        Assert.assertNull(registry.getServiceReference(bundle, ANVIL));
+    }
+
+    @Test
+    public void testAttributeIndex() throws Exception
+    {
+        ServiceRegistration red = register(bundle, new String[]{ ANVIL }, new Acme(), "color", "red");
+        ServiceRegistration both = register(bundle, new String[]{ ANVIL }, new Acme(), "color", new String[]{ "red", "blue" });
+        ServiceRegistration blue = register(bundle, new String[]{ DYNAMITE }, new Acme(), "color", "blue");
+        ServiceRegistration number = register(bundle, new String[]{ ANVIL }, new Acme(), "color", 5);
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(color=red)"), red, both);
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(COLOR=red)"), red, both);
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(|(color=red)(color=blue))"), red, both);
+        assertReferences(registry.getServiceReferences(bundle, null, "(|(color=red)(color=blue))"), red, both, blue);
+        assertReferences(registry.getAllServiceReferences(null, "(color=blue)"), both, blue);
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(color=5)"), number);
+        Assert.assertNull(registry.getServiceReferences(bundle, ANVIL, "(color=green)"));
+
+        both.unregister();
+
+        assertReferences(registry.getServiceReferences(bundle, null, "(color=red)"), red);
+        assertReferences(registry.getServiceReferences(bundle, null, "(color=blue)"), blue);
+    }
+
+    @Test
+    public void testRanking() throws Exception
+    {
+        String[] classes = new String[]{ ANVIL, DYNAMITE };
+        ServiceRegistration s1 = register(bundle, classes, new Acme(), Constants.SERVICE_RANKING, 0);
+        ServiceRegistration s2 = register(bundle, classes, new Acme(), null);
+        ServiceRegistration s3 = register(bundle, classes, new Acme(), Constants.SERVICE_RANKING, 5);
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, null), s3, s1, s2);
+        assertReferences(registry.getServiceReferences(bundle, DYNAMITE, null), s3, s1, s2);
+        Assert.assertEquals(s3.getReference(), registry.getServiceReference(bundle, ANVIL));
+
+        s2.setProperties(ranking(10));
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, null), s2, s3, s1);
+        assertReferences(registry.getServiceReferences(bundle, DYNAMITE, null), s2, s3, s1);
+        assertReferences(registry.getAllServiceReferences(null, null), s2, s3, s1);
+        Assert.assertEquals(s2.getReference(), registry.getServiceReference(bundle, DYNAMITE));
+
+        s2.setProperties(ranking(0));
+        s3.setProperties(ranking(0));
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, null), s1, s2, s3);
+        assertReferences(registry.getServiceReferences(bundle, DYNAMITE, null), s1, s2, s3);
+        Assert.assertEquals(s1.getReference(), registry.getServiceReference(bundle, ANVIL));
+    }
+
+    @Test
+    public void testReindexAttributes() throws Exception
+    {
+        ServiceRegistration s1 = register(bundle, new String[]{ ANVIL }, new Acme(), "color", "red");
+        ServiceRegistration s2 = register(bundle, new String[]{ ANVIL }, new Acme(), "color", "red");
+
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("color", "green");
+        s1.setProperties(properties);
+
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(color=red)"), s2);
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(color=green)"), s1);
+
+        properties.put("color", new String[]{ "blue", "green" });
+        s2.setProperties(properties);
+
+        Assert.assertNull(registry.getServiceReferences(bundle, ANVIL, "(color=red)"));
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(color=blue)"), s2);
+        assertReferences(registry.getServiceReferences(bundle, ANVIL, "(color=green)"), s1, s2);
+    }
+
+    @Test
+    public void testBundleCleanup() throws Exception
+    {
+        BundleController other = new BundleController(framework, new MockBundleStore(2, "mock:location2"));
+        BundleController user = new BundleController(framework, new MockBundleStore(3, "mock:location3"));
+        CountingFactory factory = new CountingFactory();
+        CountingFactory otherFactory = new CountingFactory();
+
+        ServiceRegistration plain = register(bundle, new String[]{ ANVIL }, new Acme(), "color", "red");
+        ServiceRegistration factored = register(bundle, new String[]{ ANVIL }, factory, "color", "red");
+        ServiceRegistration kept = register(other, new String[]{ ANVIL }, otherFactory, "color", "red");
+
+        Assert.assertNotNull(registry.getService(user, plain.getReference()));
+        Assert.assertNotNull(registry.getService(user, factored.getReference()));
+        Assert.assertNotNull(registry.getService(user, kept.getReference()));
+        Assert.assertNotNull(registry.getService(user, kept.getReference()));
+        Assert.assertEquals(1, otherFactory.gets);
+
+        registry.unregister(bundle);
+
+        assertReferences(registry.getServiceReferences(user, ANVIL, null), kept);
+        assertReferences(registry.getServiceReferences(user, ANVIL, "(color=red)"), kept);
+        Assert.assertNull(registry.getUsingBundles(serviceId(plain)));
+        Assert.assertEquals(1, factory.ungets);
+        Assert.assertNotNull(registry.getUsingBundles(serviceId(kept)));
+
+        registry.ungetService(user);
+
+        Assert.assertNull(registry.getUsingBundles(serviceId(kept)));
+        Assert.assertEquals(1, otherFactory.ungets);
+        Assert.assertEquals(1, factory.ungets);
+
+        registry.ungetService(user);
+        registry.unregister(bundle);
+
+        Assert.assertEquals(1, otherFactory.ungets);
+        assertReferences(registry.getAllServiceReferences(null, null), kept);
+    }
+
+    @Test
+    public void testAssignableCache() throws Exception
+    {
+        BundleGeneration registering = createGeneration(new MockBundleStore(2, "mock:location2"));
+        BundleGeneration requesting = createGeneration(new MockBundleStore(3, "mock:location3"));
+        BundleController registeringBundle = registering.getBundleController();
+        BundleController requestingBundle = requesting.getBundleController();
+
+        createLoader(registering, Collections.<Wire>emptySet(), new MockResourceLocation("registering").add("com/acme/Anvil.class", BundleClassLoaderTest.generateClass("com/acme/Anvil", "java/lang/Object")));
+        createLoader(requesting, Collections.<Wire>emptySet(), new MockResourceLocation("requesting").add("com/acme/Anvil.class", BundleClassLoaderTest.generateClass("com/acme/Anvil", "java/lang/Object")));
+
+        long serviceId = serviceId(register(registeringBundle, new String[]{ "com.acme.Anvil" }, new CountingFactory(), null));
+
+        Assert.assertFalse(registry.isAssignableTo(serviceId, requestingBundle, "com.acme.Anvil"));
+        Assert.assertTrue(registry.isAssignableTo(serviceId, registeringBundle, "com.acme.Anvil"));
+
+        Wire wire = new Wire("com.acme", new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap()), requesting);
+        createLoader(registering, Collections.singleton(wire), new MockResourceLocation("rewired"));
+
+        Assert.assertFalse("stale answer is served until the generation is invalidated", registry.isAssignableTo(serviceId, requestingBundle, "com.acme.Anvil"));
+
+        registry.invalidateAssignable(registering);
+
+        Assert.assertTrue(registry.isAssignableTo(serviceId, requestingBundle, "com.acme.Anvil"));
+    }
+
+    private ServiceRegistration register(BundleController bundleController, String[] classes, Object service, String key, Object value)
+    {
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(key, value);
+
+        return register(bundleController, classes, service, properties);
+    }
+
+    private ServiceRegistration register(BundleController bundleController, String[] classes, Object service, Dictionary<String, Object> properties)
+    {
+        return registry.registerService(bundleController, classes, service, properties);
+    }
+
+    private BundleGeneration createGeneration(BundleStore bundleStore)
+    {
+        BundleController bundleController = new BundleController(framework, bundleStore);
+        BundleGeneration bundleGeneration = new BundleGeneration(bundleController, new BundleClassLoaderTest.TestArchiveStore(false));
+
+        bundleGeneration.setState(Bundle.RESOLVED);
+        bundleController.setCurrentGeneration(bundleGeneration);
+
+        return bundleGeneration;
+    }
+
+    private BundleClassLoader createLoader(BundleGeneration bundleGeneration, Set<Wire> wires, ResourceLocation location) throws BundleException
+    {
+        ArchiveStore archiveStore = bundleGeneration.getArchiveStore();
+        BundleClassLoader loader = new BundleClassLoader(framework,
+                                                         bundleGeneration,
+                                                         wires,
+                                                         Collections.<Wire>emptyList(),
+                                                         new String[0],
+                                                         Collections.<DynamicDescription>emptyList(),
+                                                         Collections.singletonList(location),
+                                                         new HashSet<ArchiveStore>(Collections.singleton(archiveStore)));
+
+        bundleGeneration.setClassLoader(loader);
+
+        return loader;
+    }
+
+    private static long serviceId(ServiceRegistration registration)
+    {
+        return (Long) registration.getReference().getProperty(Constants.SERVICE_ID);
+    }
+
+    private static Dictionary<String, Object> ranking(int ranking)
+    {
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(Constants.SERVICE_RANKING, ranking);
+
+        return properties;
+    }
+
+    private static void assertReferences(ServiceReference[] references, ServiceRegistration... registrations)
+    {
+        Assert.assertNotNull(references);
+
+        List<Object> expected = new ArrayList<Object>();
+        for (ServiceRegistration registration : registrations) expected.add(registration.getReference().getProperty(Constants.SERVICE_ID));
+
+        List<Object> actual = new ArrayList<Object>();
+        for (ServiceReference reference : references) actual.add(reference.getProperty(Constants.SERVICE_ID));
+
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(PapooseConstants.PAPOOSE_FRAMEWORK_SERVICE_INDEXES, "color");
+
+        executorService = new ScheduledThreadPoolExecutor(5);
+        framework = new Papoose(new MockStore(), executorService, properties);
+
+        framework.start();
+
+        registry = framework.getServiceRegistry();
+        bundle = new BundleController(framework, new MockBundleStore(1, "mock:location1"));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        framework.stop();
+        framework.waitForStop(0);
+
+        executorService.shutdownNow();
+
+        executorService = null;
+        framework = null;
+        registry = null;
+        bundle = null;
+    }
+
+    public static interface Anvil
+    {
+    }
+
+    public static interface Dynamite
+    {
+    }
+
+    public static class Acme implements Anvil, Dynamite
+    {
+    }
+
+    public static class CountingFactory implements ServiceFactory
+    {
+        private volatile int gets;
+        private volatile int ungets;
+
+        public Object getService(Bundle bundle, ServiceRegistration registration)
+        {
+            gets++;
+            return new Acme();
+        }
+
+        public void ungetService(Bundle bundle, ServiceRegistration registration, Object service)
+        {
+            ungets++;
+        }
+    }
+}
@@ -64,6 +64,31 @@ public class VersionRangeTest
         }
     }
 
+    @Test
+    public void testAccessors()
+    {
+        VersionRange range = VersionRange.parseVersionRange("[1.0.0, 2.0.0)");
+
+        Assert.assertEquals(new Version(1, 0, 0), range.getStart());
+        Assert.assertEquals(new Version(2, 0, 0), range.getEnd());
+        Assert.assertTrue(range.isStartIncluding());
+        Assert.assertFalse(range.isEndIncluding());
+
+        range = VersionRange.parseVersionRange("(1.0.0, 2.0.0]");
+
+        Assert.assertFalse(range.isStartIncluding());
+        Assert.assertTrue(range.isEndIncluding());
+
+        range = VersionRange.parseVersionRange("1.0.0");
+
+        Assert.assertEquals(new Version(1, 0, 0), range.getStart());
+        Assert.assertNull(range.getEnd());
+        Assert.assertTrue(range.isStartIncluding());
+
+        Assert.assertEquals(VersionRange.DEFAULT_VERSION, VersionRange.DEFAULT_VERSION_RANGE.getStart());
+        Assert.assertNull(VersionRange.DEFAULT_VERSION_RANGE.getEnd());
+    }
+
     @Test
     public void testRanges()
     {
@@ -136,6 +136,31 @@ public class WireTest
         Assert.assertFalse(test.validFor("com/acme/Spring.class"));
     }
 
+    @Test
+    public void testAdmits() throws Exception
+    {
+        ExportDescription description = new ExportDescription(Collections.singleton("com.acme"), Collections.<String, Object>emptyMap());
+
+        BundleController mockBundleController = new BundleController(mockFramework, new MockBundleStore(1, "mock:location"));
+        Wire test = new Wire("com.acme", description, new BundleGeneration(mockBundleController, new MockArchiveStore()));
+
+        Assert.assertFalse(test.isFiltered());
+        Assert.assertTrue(test.admits("Dynamite"));
+
+        description.setInclude(Collections.singletonList(new String[]{ "Dynam", "" }));
+
+        Assert.assertTrue(test.isFiltered());
+        Assert.assertTrue(test.admits("Dynamite"));
+        Assert.assertFalse(test.admits("Anvil"));
+
+        description.setInclude(Collections.<String[]>emptyList());
+        description.setExclude(Collections.singletonList(new String[]{ "Dynamite" }));
+
+        Assert.assertTrue(test.isFiltered());
+        Assert.assertFalse(test.admits("Dynamite"));
+        Assert.assertTrue(test.admits("Anvil"));
+    }
+
     @Before
     public void setUp()
     {
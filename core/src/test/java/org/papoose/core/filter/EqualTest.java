@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.filter;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class EqualTest
+{
+    @Test
+    public void testValueClasses()
+    {
+        Dictionary<String, Object> dictionary = new Hashtable<String, Object>();
+        Equal test = new Equal("foo", "45");
+
+        dictionary.put("foo", 45);
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", 45L);
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", "45");
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", (short) 45);
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", 45.0);
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", 46);
+        Assert.assertFalse(test.match(dictionary));
+
+        dictionary.put("foo", 46L);
+        Assert.assertFalse(test.match(dictionary));
+
+        dictionary.put("foo", 45);
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", new Object[]{ 44L, 45L });
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", Arrays.asList("44", "46"));
+        Assert.assertFalse(test.match(dictionary));
+    }
+
+    @Test
+    public void testInvalid()
+    {
+        Dictionary<String, Object> dictionary = new Hashtable<String, Object>();
+        Equal test = new Equal("foo", "bar");
+
+        dictionary.put("foo", 45);
+        Assert.assertFalse(test.match(dictionary));
+        Assert.assertFalse(test.match(dictionary));
+
+        dictionary.put("foo", 'b');
+        Assert.assertFalse(test.match(dictionary));
+        Assert.assertFalse(test.match(dictionary));
+
+        dictionary.put("foo", new Integer[]{ 45 });
+        Assert.assertFalse(test.match(dictionary));
+
+        dictionary.put("foo", "bar");
+        Assert.assertTrue(test.match(dictionary));
+        Assert.assertTrue(test.match(dictionary));
+
+        dictionary.put("foo", 45);
+        Assert.assertFalse(test.match(dictionary));
+
+        Greater greater = new Greater("foo", "bar");
+
+        Assert.assertFalse(greater.match(dictionary));
+        Assert.assertFalse(greater.match(dictionary));
+    }
+
+    @Test
+    public void testNotCached()
+    {
+        Dictionary<String, Object> dictionary = new Hashtable<String, Object>();
+        Equal test = new Equal("foo", "acme");
+
+        Widget.created = 0;
+
+        dictionary.put("foo", new Widget("acme"));
+        Assert.assertTrue(test.match(dictionary));
+        Assert.assertTrue(test.match(dictionary));
+
+        Assert.assertEquals(3, Widget.created);
+
+        dictionary.put("foo", new Widget("other"));
+        Assert.assertFalse(test.match(dictionary));
+    }
+
+    public static class Widget
+    {
+        static int created;
+        private final String name;
+
+        public Widget(String name)
+        {
+            this.name = name;
+            created++;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Widget && name.equals(((Widget) o).name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode();
+        }
+    }
+}
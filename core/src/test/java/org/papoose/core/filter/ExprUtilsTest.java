@@ -0,0 +1,74 @@
+/**
+ *
+ * Copyright 2009 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class ExprUtilsTest
+{
+    @Test
+    public void test() throws Exception
+    {
+        Parser parser = new Parser();
+
+        List<String[]> equalities = ExprUtils.collectEqualities(parser.parse("(service.pid=com.acme.foo)"));
+        Assert.assertEquals(1, equalities.size());
+        Assert.assertEquals("service.pid", equalities.get(0)[0]);
+        Assert.assertEquals("com.acme.foo", equalities.get(0)[1]);
+
+        equalities = ExprUtils.collectEqualities(parser.parse("(&(tenant=42)(objectClass=com.acme.Foo)(size>=5))"));
+        Assert.assertEquals(2, equalities.size());
+        Assert.assertEquals("tenant", equalities.get(0)[0]);
+        Assert.assertEquals("42", equalities.get(0)[1]);
+        Assert.assertEquals("objectClass", equalities.get(1)[0]);
+        Assert.assertEquals("com.acme.Foo", equalities.get(1)[1]);
+
+        Assert.assertTrue(ExprUtils.collectEqualities(parser.parse("(|(tenant=42)(tenant=43))")).isEmpty());
+        Assert.assertTrue(ExprUtils.collectEqualities(parser.parse("(!(tenant=42))")).isEmpty());
+        Assert.assertTrue(ExprUtils.collectEqualities(parser.parse("(tenant=4*)")).isEmpty());
+    }
+
+    @Test
+    public void testCollectValues() throws Exception
+    {
+        Parser parser = new Parser();
+
+        Set<String> values = ExprUtils.collectValues(parser.parse("(objectclass=com.acme.Foo)"), "objectClass");
+        Assert.assertEquals(Collections.singleton("com.acme.Foo"), values);
+
+        values = ExprUtils.collectValues(parser.parse("(&(tenant=42)(objectClass=com.acme.Foo))"), "objectClass");
+        Assert.assertEquals(Collections.singleton("com.acme.Foo"), values);
+
+        values = ExprUtils.collectValues(parser.parse("(|(objectClass=com.acme.Foo)(&(objectClass=com.acme.Bar)(tenant=42)))"), "objectClass");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("com.acme.Foo", "com.acme.Bar")), values);
+
+        Assert.assertNull(ExprUtils.collectValues(parser.parse("(|(objectClass=com.acme.Foo)(tenant=42))"), "objectClass"));
+        Assert.assertNull(ExprUtils.collectValues(parser.parse("(!(objectClass=com.acme.Foo))"), "objectClass"));
+        Assert.assertNull(ExprUtils.collectValues(parser.parse("(tenant=42)"), "objectClass"));
+    }
+}
@@ -35,6 +35,29 @@ public class ParserTest
 {
     private final Parser parser = new Parser();
 
+    @Test
+    public void testCache() throws Exception
+    {
+        Parser cachingParser = new Parser(new DefaultApproxAlgorithm(), 2);
+
+        Expr first = cachingParser.parse("(service.pid=com.acme.foo)");
+        Assert.assertSame(first, cachingParser.parse("  (service.pid=com.acme.foo) "));
+        Assert.assertEquals(1, cachingParser.getHits());
+        Assert.assertEquals(1, cachingParser.getMisses());
+
+        cachingParser.parse("(a=1)");
+        cachingParser.parse("(service.pid=com.acme.foo)");
+        cachingParser.parse("(b=2)");
+        Assert.assertEquals(2, cachingParser.getHits());
+        Assert.assertEquals(3, cachingParser.getMisses());
+
+        Assert.assertSame(first, cachingParser.parse("(service.pid=com.acme.foo)"));
+        Assert.assertNotSame(first, new Parser(new DefaultApproxAlgorithm(), 0).parse("(service.pid=com.acme.foo)"));
+
+        cachingParser.parse("(a=1)");
+        Assert.assertEquals(4, cachingParser.getMisses());
+    }
+
     @Test
     public void test() throws Exception
     {
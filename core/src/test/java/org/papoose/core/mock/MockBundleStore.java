@@ -17,6 +17,11 @@
 package org.papoose.core.mock;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.BundleException;
 
@@ -30,6 +35,7 @@ public class MockBundleStore implements BundleStore
 {
     private final long bundleId;
     private final String location;
+    private final Map<String, List<String>> profiles = new ConcurrentHashMap<String, List<String>>();
     private volatile long lastModified;
 
     public MockBundleStore(long bundleId, String location)
@@ -82,4 +88,15 @@ public class MockBundleStore implements BundleStore
     public void setAutoStart(AutostartSetting setting)
     {
     }
+
+    public List<String> loadClassProfile(String key)
+    {
+        List<String> classNames = profiles.get(key);
+        return classNames == null ? Collections.<String>emptyList() : classNames;
+    }
+
+    public void saveClassProfile(String key, List<String> classNames)
+    {
+        profiles.put(key, new ArrayList<String>(classNames));
+    }
 }
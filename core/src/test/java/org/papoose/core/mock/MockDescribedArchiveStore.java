@@ -0,0 +1,112 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+import org.papoose.core.descriptions.ExportDescription;
+import org.papoose.core.descriptions.FragmentDescription;
+import org.papoose.core.descriptions.ImportDescription;
+import org.papoose.core.descriptions.RequireDescription;
+import org.papoose.core.util.AttributeUtils;
+
+
+/**
+ * An archive store whose symbolic name, exports, imports, required bundles
+ * and fragment host are set by the test.
+ */
+public class MockDescribedArchiveStore extends MockArchiveStore
+{
+    private final String symbolicName;
+    private final List<ExportDescription> exportDescriptions = new ArrayList<ExportDescription>();
+    private final List<ImportDescription> importDescriptions = new ArrayList<ImportDescription>();
+    private final List<RequireDescription> requireDescriptions = new ArrayList<RequireDescription>();
+    private FragmentDescription fragmentDescription;
+
+    public MockDescribedArchiveStore(String symbolicName)
+    {
+        this.symbolicName = symbolicName;
+    }
+
+    /**
+     * @param exports an Export-Package header
+     * @return this archive store
+     */
+    public MockDescribedArchiveStore exportPackages(String exports) throws BundleException
+    {
+        exportDescriptions.addAll(AttributeUtils.parseBundleExportList(exports, symbolicName, getBundleVersion()));
+        return this;
+    }
+
+    public MockDescribedArchiveStore importPackage(String packageName)
+    {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(Constants.VERSION_ATTRIBUTE, ImportDescription.DEFAULT_VERSION_RANGE);
+
+        importDescriptions.add(new ImportDescription(Collections.singleton(packageName), parameters));
+        return this;
+    }
+
+    public MockDescribedArchiveStore requireBundle(String symbolicName)
+    {
+        requireDescriptions.add(new RequireDescription(symbolicName, Collections.<String, Object>emptyMap()));
+        return this;
+    }
+
+    public MockDescribedArchiveStore fragmentHost(String symbolicName)
+    {
+        fragmentDescription = new FragmentDescription(symbolicName, Collections.<String, Object>emptyMap());
+        return this;
+    }
+
+    @Override
+    public String getBundleSymbolicName()
+    {
+        return symbolicName;
+    }
+
+    @Override
+    public List<ExportDescription> getExportDescriptions()
+    {
+        return exportDescriptions;
+    }
+
+    @Override
+    public List<ImportDescription> getImportDescriptions()
+    {
+        return importDescriptions;
+    }
+
+    @Override
+    public List<RequireDescription> getRequireDescriptions()
+    {
+        return requireDescriptions;
+    }
+
+    @Override
+    public FragmentDescription getFragmentDescription()
+    {
+        return fragmentDescription;
+    }
+}
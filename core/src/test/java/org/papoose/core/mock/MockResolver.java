@@ -44,5 +44,7 @@ public class MockResolver implements Resolver
 
     public Set<Solution> resolve(Generation bundle) throws BundleException { return null; }
 
+    public Set<Solution> resolve(Set<Generation> bundles) { return null; }
+
     public Set<Solution> resolve(BundleGeneration bundleGeneration, ImportDescription importDescription) throws BundleException { return null; }
 }
@@ -0,0 +1,201 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.apache.xbean.classloader.ResourceHandle;
+import org.apache.xbean.classloader.ResourceLocation;
+
+
+/**
+ * A class path location that serves resources from memory and counts how
+ * often it is probed.
+ */
+public class MockResourceLocation implements ResourceLocation
+{
+    private final Map<String, byte[]> resources = new HashMap<String, byte[]>();
+    private final AtomicInteger probes = new AtomicInteger();
+    private final URL codeSource;
+
+    public MockResourceLocation(String name)
+    {
+        try
+        {
+            this.codeSource = new URL("file:/mock/" + name + "/");
+        }
+        catch (MalformedURLException mue)
+        {
+            throw new IllegalArgumentException(mue);
+        }
+    }
+
+    public MockResourceLocation add(String resourceName, byte[] bytes)
+    {
+        resources.put(resourceName, bytes);
+        return this;
+    }
+
+    /**
+     * Serve the class file of a class found on the test class path.
+     *
+     * @param clazz the class whose class file is to be served
+     * @return this location
+     */
+    public MockResourceLocation add(Class clazz)
+    {
+        String resourceName = clazz.getName().replace('.', '/') + ".class";
+
+        try
+        {
+            InputStream in = clazz.getClassLoader().getResourceAsStream(resourceName);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+
+            try
+            {
+                while ((count = in.read(buffer)) != -1) out.write(buffer, 0, count);
+            }
+            finally
+            {
+                in.close();
+            }
+
+            return add(resourceName, out.toByteArray());
+        }
+        catch (IOException ioe)
+        {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    public int getProbes()
+    {
+        return probes.get();
+    }
+
+    public URL getCodeSource()
+    {
+        return codeSource;
+    }
+
+    public ResourceHandle getResourceHandle(String resourceName)
+    {
+        probes.incrementAndGet();
+
+        byte[] bytes = resources.get(resourceName);
+        if (bytes == null) return null;
+
+        try
+        {
+            return new MockResourceHandle(resourceName, new URL(codeSource, resourceName), bytes);
+        }
+        catch (MalformedURLException mue)
+        {
+            throw new IllegalStateException(mue);
+        }
+    }
+
+    public Manifest getManifest() throws IOException
+    {
+        return null;
+    }
+
+    public void close()
+    {
+    }
+
+    private class MockResourceHandle implements ResourceHandle
+    {
+        private final String name;
+        private final URL url;
+        private final byte[] bytes;
+
+        private MockResourceHandle(String name, URL url, byte[] bytes)
+        {
+            this.name = name;
+            this.url = url;
+            this.bytes = bytes;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public URL getUrl()
+        {
+            return url;
+        }
+
+        public boolean isDirectory()
+        {
+            return false;
+        }
+
+        public URL getCodeSourceUrl()
+        {
+            return codeSource;
+        }
+
+        public InputStream getInputStream() throws IOException
+        {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        public int getContentLength()
+        {
+            return bytes.length;
+        }
+
+        public byte[] getBytes() throws IOException
+        {
+            return bytes.clone();
+        }
+
+        public Manifest getManifest() throws IOException
+        {
+            return null;
+        }
+
+        public Attributes getAttributes() throws IOException
+        {
+            return null;
+        }
+
+        public Certificate[] getCertificates()
+        {
+            return null;
+        }
+
+        public void close()
+        {
+        }
+    }
+}
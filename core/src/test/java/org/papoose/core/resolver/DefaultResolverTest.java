@@ -0,0 +1,192 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.resolver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+import org.papoose.core.BundleController;
+import org.papoose.core.BundleGeneration;
+import org.papoose.core.Generation;
+import org.papoose.core.Papoose;
+import org.papoose.core.PapooseConstants;
+import org.papoose.core.mock.MockBundleStore;
+import org.papoose.core.mock.MockDescribedArchiveStore;
+import org.papoose.core.mock.MockStore;
+import org.papoose.core.spi.Solution;
+
+
+/**
+ *
+ */
+public class DefaultResolverTest
+{
+    private ExecutorService executorService;
+    private Papoose mockFramework;
+    private DefaultResolver resolver;
+    private long bundleId;
+
+    @Test
+    public void testBatch() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c").exportPackages("com.acme.c"));
+        Generation d = createGeneration(new MockDescribedArchiveStore("com.acme.d").importPackage("com.acme.missing"));
+
+        Set<Solution> solutions = resolver.resolve(new HashSet<Generation>(Arrays.asList(a, b, c, d)));
+
+        Assert.assertEquals(new HashSet<Generation>(Arrays.asList(a, b, c)), bundles(solutions));
+    }
+
+    @Test
+    public void testFailingCluster() throws Exception
+    {
+        Generation broken = createGeneration(new BrokenArchiveStore("com.acme.broken"));
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c"));
+        Generation alsoBroken = createGeneration(new BrokenArchiveStore("com.acme.also.broken"));
+
+        Set<Solution> solutions = resolver.resolve(new HashSet<Generation>(Arrays.asList(broken, a, b, c, alsoBroken)));
+
+        Assert.assertEquals(new HashSet<Generation>(Arrays.asList(a, b, c)), bundles(solutions));
+    }
+
+    @Test
+    public void testResolveBeforeStateChange() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+
+        Assert.assertEquals(new HashSet<Generation>(Arrays.asList(a, b)), bundles(resolver.resolve(new HashSet<Generation>(Arrays.asList(a, b)))));
+
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c"));
+
+        Assert.assertEquals(Collections.singleton(c), bundles(resolver.resolve(c)));
+
+        a.setState(Bundle.RESOLVED);
+        b.setState(Bundle.RESOLVED);
+        c.setState(Bundle.RESOLVED);
+
+        Generation d = createGeneration(new MockDescribedArchiveStore("com.acme.d").importPackage("com.acme.a"));
+
+        Set<Solution> solutions = resolver.resolve(d);
+
+        Assert.assertEquals(Collections.singleton(d), bundles(solutions));
+        Assert.assertSame(a, solutions.iterator().next().getWires().iterator().next().getBundleGeneration());
+    }
+
+    @Test
+    public void testFailingClusterSerially() throws Exception
+    {
+        resolver.stop();
+        startResolver("1");
+
+        Generation broken = createGeneration(new BrokenArchiveStore("com.acme.broken"));
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c"));
+
+        Set<Solution> solutions = resolver.resolve(new HashSet<Generation>(Arrays.asList(broken, a, b, c)));
+
+        Assert.assertEquals(new HashSet<Generation>(Arrays.asList(a, b, c)), bundles(solutions));
+    }
+
+    private static Set<Generation> bundles(Set<Solution> solutions)
+    {
+        Set<Generation> result = new HashSet<Generation>();
+        for (Solution solution : solutions) result.add(solution.getBundle());
+
+        return result;
+    }
+
+    private Generation createGeneration(MockDescribedArchiveStore archiveStore)
+    {
+        bundleId++;
+
+        BundleController bundleController = new BundleController(mockFramework, new MockBundleStore(bundleId, "mock:location" + bundleId));
+        Generation generation = new BundleGeneration(bundleController, archiveStore);
+
+        resolver.added(generation);
+
+        return generation;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        executorService = new ThreadPoolExecutor(5, 5, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+
+        startResolver("2");
+    }
+
+    private void startResolver(String threads) throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(PapooseConstants.PAPOOSE_FRAMEWORK_RESOLVER_THREADS, threads);
+
+        mockFramework = new Papoose(new MockStore(), executorService, properties);
+
+        resolver = new DefaultResolver();
+        resolver.start(mockFramework);
+
+        bundleId = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+        resolver.stop();
+        executorService.shutdownNow();
+
+        resolver = null;
+        executorService = null;
+        mockFramework = null;
+    }
+
+    /**
+     * An archive store that fails once its cluster is being resolved.
+     */
+    private static class BrokenArchiveStore extends MockDescribedArchiveStore
+    {
+        private BrokenArchiveStore(String symbolicName)
+        {
+            super(symbolicName);
+        }
+
+        @Override
+        public Version getBundleVersion()
+        {
+            throw new IllegalStateException("Broken archive store");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.resolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import org.papoose.core.BundleController;
+import org.papoose.core.BundleGeneration;
+import org.papoose.core.FragmentGeneration;
+import org.papoose.core.Generation;
+import org.papoose.core.Papoose;
+import org.papoose.core.mock.MockBundleStore;
+import org.papoose.core.mock.MockDescribedArchiveStore;
+import org.papoose.core.mock.MockStore;
+
+
+/**
+ *
+ */
+public class DependencyClustersTest
+{
+    private ExecutorService executorService;
+    private Papoose mockFramework;
+    private long bundleId;
+
+    @Test
+    public void testDisjoint() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c").exportPackages("com.acme.c"));
+        Generation d = createGeneration(new MockDescribedArchiveStore("com.acme.d").importPackage("com.acme.missing"));
+
+        List<List<Generation>> clusters = DependencyClusters.partition(Arrays.asList(a, b, c, d), candidates(a, b, c, d));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(a, b), Arrays.asList(c), Arrays.asList(d)), clusters);
+    }
+
+    @Test
+    public void testSharedExporter() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c").importPackage("com.acme.a"));
+
+        List<List<Generation>> clusters = DependencyClusters.partition(Arrays.asList(b, c), candidates(a, b, c));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(b, c)), clusters);
+    }
+
+    @Test
+    public void testResolvedExporter() throws Exception
+    {
+        BundleGeneration a = createGeneration(new MockDescribedArchiveStore("com.acme.a").exportPackages("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").importPackage("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c").importPackage("com.acme.a"));
+
+        a.setState(Bundle.RESOLVED);
+
+        List<Candidate> candidates = new ArrayList<Candidate>(candidates(b, c));
+        candidates.add(new Resolved(a));
+
+        List<List<Generation>> clusters = DependencyClusters.partition(Arrays.asList(b, c), candidates);
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(b), Arrays.asList(c)), clusters);
+    }
+
+    @Test
+    public void testRequire() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b").requireBundle("com.acme.a"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.c"));
+
+        List<List<Generation>> clusters = DependencyClusters.partition(Arrays.asList(a, b, c), candidates(a, b, c));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(a, b), Arrays.asList(c)), clusters);
+    }
+
+    @Test
+    public void testFragmentHost() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b"));
+        Generation f = createFragment(new MockDescribedArchiveStore("com.acme.f").fragmentHost("com.acme.b"));
+
+        List<List<Generation>> clusters = DependencyClusters.partition(Arrays.asList(a, b, f), candidates(a, b, f));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(a), Arrays.asList(b, f)), clusters);
+    }
+
+    @Test
+    public void testSymbolicName() throws Exception
+    {
+        Generation a = createGeneration(new MockDescribedArchiveStore("com.acme.a"));
+        Generation b = createGeneration(new MockDescribedArchiveStore("com.acme.b"));
+        Generation c = createGeneration(new MockDescribedArchiveStore("com.acme.a"));
+
+        List<List<Generation>> clusters = DependencyClusters.partition(Arrays.asList(a, b, c), candidates(a, b, c));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(a, c), Arrays.asList(b)), clusters);
+    }
+
+    private static Collection<Candidate> candidates(Generation... generations)
+    {
+        List<Candidate> result = new ArrayList<Candidate>();
+        for (Generation generation : generations) result.add(new UnBound(generation));
+
+        return result;
+    }
+
+    private BundleGeneration createGeneration(MockDescribedArchiveStore archiveStore)
+    {
+        return new BundleGeneration(createController(), archiveStore);
+    }
+
+    private FragmentGeneration createFragment(MockDescribedArchiveStore archiveStore)
+    {
+        return new FragmentGeneration(createController(), archiveStore);
+    }
+
+    private BundleController createController()
+    {
+        bundleId++;
+        return new BundleController(mockFramework, new MockBundleStore(bundleId, "mock:location" + bundleId));
+    }
+
+    @Before
+    public void setUp()
+    {
+        executorService = new ThreadPoolExecutor(5, 5, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        mockFramework = new Papoose(new MockStore(), executorService, new Properties());
+        bundleId = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+        executorService.shutdownNow();
+
+        executorService = null;
+        mockFramework = null;
+    }
+}
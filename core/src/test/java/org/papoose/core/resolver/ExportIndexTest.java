@@ -0,0 +1,194 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.resolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+import org.papoose.core.BundleController;
+import org.papoose.core.BundleGeneration;
+import org.papoose.core.Generation;
+import org.papoose.core.Papoose;
+import org.papoose.core.VersionRange;
+import org.papoose.core.descriptions.ExportDescription;
+import org.papoose.core.descriptions.ImportDescription;
+import org.papoose.core.mock.MockArchiveStore;
+import org.papoose.core.mock.MockBundleStore;
+import org.papoose.core.mock.MockStore;
+import org.papoose.core.util.AttributeUtils;
+
+
+/**
+ *
+ */
+public class ExportIndexTest
+{
+    private ExecutorService executorService;
+    private Papoose mockFramework;
+
+    @Test
+    public void testRanges() throws Exception
+    {
+        Generation one = createGeneration(1, "com.acme;version=1.0.0");
+        Generation two = createGeneration(2, "com.acme;version=1.5.0");
+        Generation three = createGeneration(3, "com.acme;version=2.0.0");
+        Generation four = createGeneration(4, "com.acme");
+
+        ExportIndex index = new ExportIndex();
+        index.add(two);
+        index.add(four);
+        index.add(one);
+        index.add(three);
+
+        assertGenerations(index.collect(createImport("com.acme", null)), three, two, one, four);
+        assertGenerations(index.collect(createImport("com.acme", "1.0.0")), three, two, one);
+        assertGenerations(index.collect(createImport("com.acme", "[1.0.0,2.0.0]")), three, two, one);
+        assertGenerations(index.collect(createImport("com.acme", "(1.0.0,2.0.0)")), two);
+        assertGenerations(index.collect(createImport("com.acme", "[1.0.0,2.0.0)")), two, one);
+        assertGenerations(index.collect(createImport("com.acme", "(1.0.0,2.0.0]")), three, two);
+        assertGenerations(index.collect(createImport("com.acme", "[1.5.0,1.5.0]")), two);
+        assertGenerations(index.collect(createImport("com.acme", "3.0.0")));
+        assertGenerations(index.collect(createImport("com.acme.oops", null)));
+    }
+
+    @Test
+    public void testBundleIdOrder() throws Exception
+    {
+        Generation one = createGeneration(1, "com.acme;version=1.0.0");
+        Generation two = createGeneration(2, "com.acme;version=1.0.0");
+        Generation three = createGeneration(3, "com.acme;version=1.0.0");
+
+        ExportIndex index = new ExportIndex();
+        index.add(three);
+        index.add(one);
+        index.add(two);
+
+        assertGenerations(index.collect(createImport("com.acme", null)), one, two, three);
+    }
+
+    @Test
+    public void testMandatory() throws Exception
+    {
+        Generation one = createGeneration(1, "com.acme;version=1.0.0;vendor=acme;mandatory:=vendor");
+        Generation two = createGeneration(2, "com.acme;version=1.0.0");
+
+        ExportIndex index = new ExportIndex();
+        index.add(one);
+        index.add(two);
+
+        assertGenerations(index.collect(createImport("com.acme", null)), two);
+
+        ImportDescription importDescription = new ImportDescription(Collections.singleton("com.acme"), Collections.<String, Object>singletonMap("vendor", "acme"));
+        assertGenerations(index.collect(new ImportDescriptionWrapper("com.acme", importDescription)), one, two);
+    }
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        Generation one = createGeneration(1, "com.acme;version=1.0.0,com.acme.util;version=1.0.0");
+        Generation two = createGeneration(2, "com.acme;version=1.0.0");
+        Generation three = createGeneration(3, "com.acme;version=2.0.0");
+
+        ExportIndex index = new ExportIndex();
+        index.add(one);
+        index.add(two);
+        index.add(three);
+
+        index.remove(one);
+
+        assertGenerations(index.collect(createImport("com.acme", null)), three, two);
+        assertGenerations(index.collect(createImport("com.acme.util", null)));
+
+        index.remove(two);
+        index.remove(three);
+
+        assertGenerations(index.collect(createImport("com.acme", null)));
+
+        index.add(one);
+
+        assertGenerations(index.collect(createImport("com.acme", "[1.0.0,1.0.0]")), one);
+        assertGenerations(index.collect(createImport("com.acme.util", null)), one);
+
+        index.clear();
+
+        assertGenerations(index.collect(createImport("com.acme", null)));
+    }
+
+    private static void assertGenerations(List<ExportIndex.Export> exports, Generation... generations)
+    {
+        List<Generation> result = new ArrayList<Generation>();
+        for (ExportIndex.Export export : exports) result.add(export.getGeneration());
+
+        Assert.assertEquals(Arrays.asList(generations), result);
+    }
+
+    private static ImportDescriptionWrapper createImport(String packageName, String versionRange)
+    {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        if (versionRange != null) parameters.put(Constants.VERSION_ATTRIBUTE, VersionRange.parseVersionRange(versionRange));
+
+        return new ImportDescriptionWrapper(packageName, new ImportDescription(Collections.singleton(packageName), parameters));
+    }
+
+    private Generation createGeneration(long bundleId, String exports) throws BundleException
+    {
+        final List<ExportDescription> exportDescriptions = AttributeUtils.parseBundleExportList(exports, "com.acme.bundle" + bundleId, VersionRange.DEFAULT_VERSION);
+
+        BundleController bundleController = new BundleController(mockFramework, new MockBundleStore(bundleId, "mock:location" + bundleId));
+
+        return new BundleGeneration(bundleController, new MockArchiveStore()
+        {
+            @Override
+            public List<ExportDescription> getExportDescriptions()
+            {
+                return exportDescriptions;
+            }
+        });
+    }
+
+    @Before
+    public void setUp()
+    {
+        executorService = new ThreadPoolExecutor(5, 5, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        mockFramework = new Papoose(new MockStore(), executorService, new Properties());
+    }
+
+    @After
+    public void tearDown()
+    {
+        executorService.shutdownNow();
+
+        executorService = null;
+        mockFramework = null;
+    }
+}
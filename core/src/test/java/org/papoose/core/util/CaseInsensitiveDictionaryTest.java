@@ -0,0 +1,97 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class CaseInsensitiveDictionaryTest
+{
+    @Test
+    public void testCase()
+    {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("objectClass", "com.acme.Anvil");
+        properties.put("service.ranking", 5);
+
+        CaseInsensitiveDictionary dictionary = new CaseInsensitiveDictionary(properties);
+
+        Assert.assertEquals(2, dictionary.size());
+        Assert.assertEquals("com.acme.Anvil", dictionary.get("objectClass"));
+        Assert.assertEquals("com.acme.Anvil", dictionary.get("OBJECTCLASS"));
+        Assert.assertEquals("com.acme.Anvil", dictionary.get("objectclass"));
+        Assert.assertEquals(5, dictionary.get("Service.Ranking"));
+        Assert.assertNull(dictionary.get("objectClasses"));
+        Assert.assertNull(dictionary.get(null));
+    }
+
+    @Test
+    public void testExactMatch()
+    {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("key", "lower");
+        properties.put("KEY", "upper");
+
+        CaseInsensitiveDictionary dictionary = new CaseInsensitiveDictionary(properties);
+
+        Assert.assertEquals(2, dictionary.size());
+        Assert.assertEquals(new HashSet<String>(properties.keySet()), new HashSet<String>(Collections.list(dictionary.keys())));
+        Assert.assertEquals("lower", dictionary.get("key"));
+        Assert.assertEquals("upper", dictionary.get("KEY"));
+        Assert.assertTrue(properties.containsValue(dictionary.get("Key")));
+    }
+
+    @Test
+    public void testImmutable()
+    {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("key", "value");
+
+        CaseInsensitiveDictionary dictionary = new CaseInsensitiveDictionary(properties);
+
+        properties.put("other", "value");
+
+        Assert.assertEquals(1, dictionary.size());
+        Assert.assertNull(dictionary.get("other"));
+
+        try
+        {
+            dictionary.put("other", "value");
+            Assert.fail("Should have thrown an UnsupportedOperationException");
+        }
+        catch (UnsupportedOperationException ignore)
+        {
+        }
+
+        try
+        {
+            dictionary.remove("key");
+            Assert.fail("Should have thrown an UnsupportedOperationException");
+        }
+        catch (UnsupportedOperationException ignore)
+        {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class DeltaSetTest
+{
+    @Test
+    public void test()
+    {
+        DeltaSet<String> set = new DeltaSet<String>(Arrays.asList("a", "b", "c"));
+
+        Assert.assertEquals(3, set.size());
+        Assert.assertTrue(set.remove("a"));
+        Assert.assertFalse(set.remove("a"));
+        Assert.assertFalse(set.remove("z"));
+        Assert.assertTrue(set.add("a"));
+        Assert.assertFalse(set.add("b"));
+        Assert.assertTrue(set.add("d"));
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d")), set);
+        Assert.assertEquals(4, set.size());
+    }
+
+    @Test
+    public void testFork()
+    {
+        DeltaSet<String> set = new DeltaSet<String>(Arrays.asList("a", "b", "c"));
+        set.remove("a");
+
+        DeltaSet<String> fork = set.fork();
+        fork.remove("b");
+        fork.add("d");
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("b", "c")), set);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("c", "d")), fork);
+
+        DeltaSet<String> empty = new DeltaSet<String>();
+        empty.add("a");
+
+        DeltaSet<String> rebased = empty.fork();
+        rebased.remove("a");
+
+        Assert.assertTrue(rebased.isEmpty());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a")), empty);
+    }
+
+    @Test
+    public void testForkAfterRebase()
+    {
+        DeltaSet<String> set = new DeltaSet<String>();
+        set.add("a");
+        set.add("b");
+
+        DeltaSet<String> rebased = set.fork();
+        rebased.add("c");
+        rebased.remove("a");
+
+        DeltaSet<String> fork = rebased.fork();
+        fork.remove("c");
+        fork.add("a");
+        fork.add("d");
+
+        rebased.remove("b");
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b")), set);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("c")), rebased);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b", "d")), fork);
+        Assert.assertEquals(3, fork.size());
+        Assert.assertEquals(1, rebased.size());
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testReAdded()
+    {
+        DeltaSet<String> set = new DeltaSet<String>(Arrays.asList("a", "b", "c"));
+        set.remove("a");
+        set.add("a");
+
+        List<String> iterated = new ArrayList<String>();
+        for (String element : set) iterated.add(element);
+
+        Assert.assertEquals(3, iterated.size());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), new HashSet<String>(iterated));
+        Assert.assertEquals(3, set.size());
+
+        DeltaSet<String> fork = set.fork();
+        Assert.assertTrue(fork.remove("a"));
+        Assert.assertFalse(fork.contains("a"));
+        Assert.assertEquals(2, fork.size());
+        Assert.assertTrue(set.contains("a"));
+
+        Assert.assertTrue(set.remove("a"));
+        Assert.assertFalse(set.remove("a"));
+        Assert.assertFalse(set.contains("a"));
+        Assert.assertEquals(2, set.size());
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class PackageTrieTest
+{
+    @Test
+    public void test()
+    {
+        PackageTrie trie = new PackageTrie(" com.acme.* ", "org.osgi.framework", "sun.");
+
+        Assert.assertTrue(trie.matches("com.acme"));
+        Assert.assertTrue(trie.matches("com.acme.foo"));
+        Assert.assertTrue(trie.matches("com/acme/foo/bar"));
+        Assert.assertFalse(trie.matches("com.acmesoft"));
+        Assert.assertFalse(trie.matches("com"));
+
+        Assert.assertTrue(trie.matches("org.osgi.framework"));
+        Assert.assertTrue(trie.matches("org/osgi/framework"));
+        Assert.assertFalse(trie.matches("org.osgi.framework.hooks"));
+        Assert.assertFalse(trie.matches("org.osgi"));
+
+        Assert.assertTrue(trie.matches("sun.misc"));
+        Assert.assertFalse(trie.matches(""));
+    }
+
+    @Test
+    public void testWildcard()
+    {
+        Assert.assertTrue(new PackageTrie("*").matches("com.acme"));
+        Assert.assertTrue(new PackageTrie("*").matches(""));
+        Assert.assertFalse(new PackageTrie().matches("com.acme"));
+    }
+}
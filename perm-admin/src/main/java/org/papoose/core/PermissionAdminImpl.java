@@ -57,6 +57,8 @@ public class PermissionAdminImpl implements PermissionAdmin
     public void setPermissions(String s, PermissionInfo[] permissionInfos)
     {
         //todo: consider this autogenerated code
+
+        framework.getBundleManager().permissionsChanged();
     }
 
     public String[] getLocations()
@@ -72,5 +74,7 @@ public class PermissionAdminImpl implements PermissionAdmin
     public void setDefaultPermissions(PermissionInfo[] permissionInfos)
     {
         //todo: consider this autogenerated code
+
+        framework.getBundleManager().permissionsChanged();
     }
 }
@@ -407,18 +407,9 @@ public class PackageAdminImpl implements PackageAdmin
             }
         }
 
-        for (BundleController bundleController : bundleControllers)
-        {
-            if (bundleController.getState() == Bundle.INSTALLED)
-            {
-                if (LOGGER.isLoggable(Level.FINEST)) LOGGER.finest("Resolving " + bundleController);
-                manager.resolve(bundleController);
-            }
-            else
-            {
-                if (LOGGER.isLoggable(Level.FINEST)) LOGGER.finest("Already resolved or uninstalled " + bundleController);
-            }
-        }
+        if (LOGGER.isLoggable(Level.FINEST)) LOGGER.finest("Resolving " + bundleControllers);
+
+        manager.resolve(bundleControllers);
 
         for (BundleController bundleController : bundleControllers)
         {
@@ -81,6 +81,9 @@ public class RefreshPackagesRunnable implements Runnable
 
             }
 
+            framework.getServiceRegistry().invalidateAssignable();
+            manager.wiringChanged();
+
             framework.getBundleManager().fireFrameworkEvent(new FrameworkEvent(FrameworkEvent.PACKAGES_REFRESHED, framework.getBundleManager().getBundle(0), null));
             //todo: consider this autogenerated code
         }
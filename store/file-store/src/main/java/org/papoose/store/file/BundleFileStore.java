@@ -16,10 +16,18 @@
  */
 package org.papoose.store.file;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,6 +49,7 @@ class BundleFileStore implements BundleStore
     public final static String LOCATION_KEY = "location";
     public final static String AUTOSTART_KEY = "autostart";
     public final static String DATA_DIR = "data";
+    public final static String CLASS_PROFILE = "class.profile";
     private final File bundleRoot;
     private final File dataRoot;
     private final long bundleId;
@@ -164,6 +173,69 @@ class BundleFileStore implements BundleStore
         }
     }
 
+    /**
+     * The class profile is saved as a text file whose first line is the key
+     * of the bundle generation that recorded it, followed by one class name
+     * per line.
+     */
+    public List<String> loadClassProfile(String key)
+    {
+        File file = new File(bundleRoot, CLASS_PROFILE);
+
+        if (!file.exists()) return Collections.emptyList();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+            if (!key.equals(reader.readLine())) return Collections.emptyList();
+
+            List<String> classNames = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() > 0) classNames.add(line);
+            }
+
+            return classNames;
+        }
+        catch (IOException ioe)
+        {
+            LOGGER.log(Level.WARNING, "Unable to load class profile", ioe);
+            return Collections.emptyList();
+        }
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    public void saveClassProfile(String key, List<String> classNames) throws BundleException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter(new FileOutputStream(new File(bundleRoot, CLASS_PROFILE)), "UTF-8");
+
+            writer.write(key);
+            writer.write('\n');
+            for (String className : classNames)
+            {
+                writer.write(className);
+                writer.write('\n');
+            }
+        }
+        catch (IOException ioe)
+        {
+            throw new BundleException("Unable to save class profile", ioe);
+        }
+        finally
+        {
+            close(writer);
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -178,6 +250,20 @@ class BundleFileStore implements BundleStore
         properties.store(new FileOutputStream(new File(bundleRoot, "bundle.properties")), " bundle id: " + bundleId + " location: " + location);
     }
 
+    @SuppressWarnings({ "EmptyCatchBlock" })
+    private static void close(Closeable closeable)
+    {
+        if (closeable == null) return;
+
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException ignore)
+        {
+        }
+    }
+
     private Properties load() throws IOException
     {
         Properties properties = new Properties();
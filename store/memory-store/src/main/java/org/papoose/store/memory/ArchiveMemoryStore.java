@@ -26,9 +26,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.jar.Attributes;
 import java.util.jar.JarInputStream;
@@ -65,6 +67,8 @@ class ArchiveMemoryStore extends AbstractArchiveStore
     private final static ThreadLocal<byte[]> threadLocalArchive = new ThreadLocal<byte[]>();
     private byte[] archiveBytes;
     private final List<ZipEntry> zipEntries = new ArrayList<ZipEntry>();
+    private final Map<String, ZipEntry> entriesByName = new HashMap<String, ZipEntry>();
+    private final Set<String> directories = new HashSet<String>();
     private final Map<ZipEntry, byte[]> jarContents = new HashMap<ZipEntry, byte[]>();
     private final Manifest manifest;
     private final URL codeSource;
@@ -91,6 +95,10 @@ class ArchiveMemoryStore extends AbstractArchiveStore
             while ((jarEntry = zipInputStream.getNextEntry()) != null)
             {
                 zipEntries.add(jarEntry);
+                entriesByName.put(jarEntry.getName(), jarEntry);
+
+                String name = jarEntry.getName();
+                for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) directories.add(name.substring(0, i + 1));
 
                 if (!jarEntry.isDirectory())
                 {
@@ -314,15 +322,9 @@ class ArchiveMemoryStore extends AbstractArchiveStore
             {
                 return new BundleDirectoryResourceHandle(entry, UrlUtils.generateResourceUrl(archiveFileStore.getFrameworkName(), archiveFileStore.getBundleId(), resourceName, getGeneration(), location));
             }
-            else if (entryName.endsWith("/"))
+            else if (entryName.endsWith("/") && directories.contains(entryName))
             {
-                for (ZipEntry jarEntry : zipEntries)
-                {
-                    if (jarEntry.getName().startsWith(entryName))
-                    {
-                        return new BundleDirectoryResourceHandle(entry, UrlUtils.generateResourceUrl(archiveFileStore.getFrameworkName(), archiveFileStore.getBundleId(), resourceName, getGeneration(), location));
-                    }
-                }
+                return new BundleDirectoryResourceHandle(entry, UrlUtils.generateResourceUrl(archiveFileStore.getFrameworkName(), archiveFileStore.getBundleId(), resourceName, getGeneration(), location));
             }
 
             return null;
@@ -410,10 +412,18 @@ class ArchiveMemoryStore extends AbstractArchiveStore
         }
     }
 
+    /**
+     * A resource location for a jar embedded in the bundle.  The names of the
+     * embedded jar's entries are indexed, along with the offsets of their
+     * local headers, when the location is created so that lookups of names
+     * not in the jar do not touch the jar and lookups of names that are in
+     * the jar read only the entry itself.
+     */
     private class BundleJarResourceLocation extends AbstractUrlResourceLocation
     {
         private final ZipEntry jarEntry;
         private final int location;
+        private final Map<String, Integer> offsets;
 
         public BundleJarResourceLocation(ZipEntry jarEntry, int location) throws BundleException
         {
@@ -421,19 +431,24 @@ class ArchiveMemoryStore extends AbstractArchiveStore
 
             this.jarEntry = jarEntry;
             this.location = location;
+            this.offsets = indexEntries(jarEntry);
         }
 
         public ResourceHandle getResourceHandle(String resourceName)
         {
-            ZipInputStream zipInputStream = new ZipInputStream(ArchiveMemoryStore.this.getInputStream(jarEntry));
-            ZipEntry entry;
+            Integer offset = offsets.get(resourceName);
+
+            if (offset == null) return null;
+
             try
             {
+                ZipInputStream zipInputStream = openJar(offset);
+                ZipEntry entry;
                 while ((entry = zipInputStream.getNextEntry()) != null)
                 {
                     if (entry.getName().equals(resourceName))
                     {
-                        return new BundleJarResourceHandle(entry, UrlUtils.generateResourceUrl(getFrameworkName(), getBundleId(), "/" + resourceName, getGeneration(), location));
+                        return new BundleJarResourceHandle(entry, offset, UrlUtils.generateResourceUrl(getFrameworkName(), getBundleId(), "/" + resourceName, getGeneration(), location));
                     }
                 }
             }
@@ -444,6 +459,33 @@ class ArchiveMemoryStore extends AbstractArchiveStore
             return null;
         }
 
+        private ZipInputStream openJar(int offset)
+        {
+            byte[] bytes = jarContents.get(jarEntry);
+            return new ZipInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset));
+        }
+
+        /**
+         * Open the embedded jar positioned at the contents of an entry.
+         *
+         * @param name   the name of the entry
+         * @param offset the offset of the entry's local header, entries are
+         *               searched for from this offset
+         * @return a stream positioned at the contents of the entry or null if
+         *         the entry could not be found
+         * @throws IOException if the embedded jar is unreadable
+         */
+        private ZipInputStream openEntry(String name, int offset) throws IOException
+        {
+            ZipInputStream zipInputStream = openJar(offset);
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null)
+            {
+                if (entry.getName().equals(name)) return zipInputStream;
+            }
+            return null;
+        }
+
         public Manifest getManifest() throws IOException
         {
             JarInputStream jarInputStream = new JarInputStream(ArchiveMemoryStore.this.getInputStream(jarEntry));
@@ -454,11 +496,13 @@ class ArchiveMemoryStore extends AbstractArchiveStore
         private class BundleJarResourceHandle extends AbstractResourceHandle
         {
             private final ZipEntry entry;
+            private final int offset;
             private final URL url;
 
-            public BundleJarResourceHandle(ZipEntry entry, URL url)
+            public BundleJarResourceHandle(ZipEntry entry, int offset, URL url)
             {
                 this.entry = entry;
+                this.offset = offset;
                 this.url = url;
             }
 
@@ -472,20 +516,15 @@ class ArchiveMemoryStore extends AbstractArchiveStore
 
             public InputStream getInputStream() throws IOException
             {
-                ZipInputStream zipInputStream = new ZipInputStream(ArchiveMemoryStore.this.getInputStream(jarEntry));
-                ZipEntry zipEntry;
-                while ((zipEntry = zipInputStream.getNextEntry()) != null)
+                ZipInputStream zipInputStream = openEntry(entry.getName(), offset);
+                if (zipInputStream != null)
                 {
-                    if (entry.getName().equals(zipEntry.getName()))
-                    {
-                        byte[] buffer = new byte[4096];
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        Util.copy(zipInputStream, outputStream);
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    Util.copy(zipInputStream, outputStream);
 
-                        outputStream.close();
+                    outputStream.close();
 
-                        return new ByteArrayInputStream(outputStream.toByteArray());
-                    }
+                    return new ByteArrayInputStream(outputStream.toByteArray());
                 }
 
                 LOGGER.warning("Jar entry " + entry.getName() + " in " + jarEntry.getName() + " should have been found");
@@ -513,18 +552,126 @@ class ArchiveMemoryStore extends AbstractArchiveStore
 
     private ZipEntry getZipEntry(String path)
     {
-        for (ZipEntry zipEntry : zipEntries)
+        ZipEntry zipEntry = entriesByName.get(path);
+
+        if (zipEntry == null && path.length() > 0 && path.charAt(path.length() - 1) != '/') zipEntry = entriesByName.get(path + "/");
+
+        return zipEntry;
+    }
+
+    /**
+     * Index the entries of an embedded jar by name.
+     *
+     * @param jarEntry the entry of the embedded jar
+     * @return a map of entry names to local header offsets
+     * @throws BundleException if the embedded jar is unreadable
+     */
+    private Map<String, Integer> indexEntries(ZipEntry jarEntry) throws BundleException
+    {
+        byte[] bytes = jarContents.get(jarEntry);
+
+        if (bytes == null) throw new BundleException("Embedded jar " + jarEntry.getName() + " has no contents");
+
+        return indexEntries(jarEntry.getName(), bytes);
+    }
+
+    /**
+     * Index the entries of a jar by name.  The offsets of the entries' local
+     * headers are read from the jar's central directory, if the central
+     * directory cannot be read the entries are indexed with an offset of
+     * zero, i.e. they will be searched for from the start of the jar.
+     *
+     * @param name  the name of the jar, for diagnostics
+     * @param bytes the contents of the jar
+     * @return a map of entry names to local header offsets
+     * @throws BundleException if the jar is unreadable
+     */
+    static Map<String, Integer> indexEntries(String name, byte[] bytes) throws BundleException
+    {
+        try
+        {
+            return readCentralDirectory(bytes);
+        }
+        catch (IOException ioe)
         {
-            String name = zipEntry.getName();
+            LOGGER.log(Level.FINEST, "Unable to read central directory of " + name + ", scanning entries", ioe);
+        }
 
-            if (name.equals(path)) return zipEntry;
+        try
+        {
+            Map<String, Integer> offsets = new HashMap<String, Integer>();
+            ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(bytes));
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) offsets.put(entry.getName(), 0);
 
-            if (path.charAt(path.length() - 1) != '/')
+            return offsets;
+        }
+        catch (IOException ioe)
+        {
+            throw new BundleException("Embedded jar " + name + " is unreadable", ioe);
+        }
+    }
+
+    /**
+     * Read the local header offsets of a jar's entries from its central
+     * directory.  Zip64 archives, and archives whose central directory does
+     * not lie within the bytes given, e.g. truncated ones, are rejected so
+     * that the caller can fall back to scanning the entries.
+     *
+     * @param bytes the contents of the jar
+     * @return a map of entry names to local header offsets
+     * @throws IOException if the central directory cannot be read
+     */
+    static Map<String, Integer> readCentralDirectory(byte[] bytes) throws IOException
+    {
+        int end = -1;
+        for (int i = bytes.length - 22; i >= Math.max(0, bytes.length - 22 - 0xFFFF); i--)
+        {
+            // the archive comment follows the end record and ends the archive
+            if (readInt(bytes, i) == 0x06054b50 && i + 22 + readShort(bytes, i + 20) == bytes.length)
             {
-                if (name.equals(path + "/")) return zipEntry;
+                end = i;
+                break;
             }
         }
-        return null;
+        if (end < 0) throw new IOException("End of central directory not found");
+
+        int count = readShort(bytes, end + 10);
+        int size = readInt(bytes, end + 12);
+        int position = readInt(bytes, end + 16);
+
+        if (count == 0xFFFF || size == -1 || position == -1) throw new IOException("Zip64 archives are not supported");
+        if (position < 0 || size < 0 || position + size > end) throw new IOException("Corrupt central directory");
+
+        Map<String, Integer> offsets = new HashMap<String, Integer>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++)
+        {
+            if (position + 46 > end || readInt(bytes, position) != 0x02014b50) throw new IOException("Corrupt central directory");
+
+            int nameLength = readShort(bytes, position + 28);
+            int extraLength = readShort(bytes, position + 30);
+            int commentLength = readShort(bytes, position + 32);
+            int offset = readInt(bytes, position + 42);
+
+            if (offset == -1) throw new IOException("Zip64 archives are not supported");
+            if (offset < 0 || offset + 30 > bytes.length || readInt(bytes, offset) != 0x04034b50 || position + 46 + nameLength > end) throw new IOException("Corrupt central directory");
+
+            offsets.put(new String(bytes, position + 46, nameLength, "UTF-8"), offset);
+
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return offsets;
+    }
+
+    private static int readShort(byte[] bytes, int index)
+    {
+        return (bytes[index] & 0xff) | (bytes[index + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] bytes, int index)
+    {
+        return readShort(bytes, index) | readShort(bytes, index + 2) << 16;
     }
 
     private InputStream getInputStream(ZipEntry entry)
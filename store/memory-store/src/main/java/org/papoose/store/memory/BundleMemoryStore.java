@@ -17,6 +17,9 @@
 package org.papoose.store.memory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +39,8 @@ class BundleMemoryStore implements BundleStore
     private final String location;
     private long lastModified;
     private AutostartSetting setting;
+    private String profileKey;
+    private List<String> profile;
 
     BundleMemoryStore(long bundleId, String location) throws BundleException
     {
@@ -88,4 +93,16 @@ class BundleMemoryStore implements BundleStore
     {
         this.setting = setting;
     }
+
+    public synchronized List<String> loadClassProfile(String key)
+    {
+        if (key.equals(profileKey)) return profile;
+        return Collections.emptyList();
+    }
+
+    public synchronized void saveClassProfile(String key, List<String> classNames)
+    {
+        this.profile = Collections.unmodifiableList(new ArrayList<String>(classNames));
+        this.profileKey = key;
+    }
 }
@@ -17,6 +17,9 @@
 package org.papoose.store.memory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +43,8 @@ class BundleTmpFileMemoryStore implements BundleStore
     private final String location;
     private long lastModified;
     private AutostartSetting setting;
+    private String profileKey;
+    private List<String> profile;
 
     BundleTmpFileMemoryStore(File bundleRoot, long bundleId, String location) throws BundleException
     {
@@ -99,4 +104,16 @@ class BundleTmpFileMemoryStore implements BundleStore
     {
         this.setting = setting;
     }
-}
\ No newline at end of file
+
+    public synchronized List<String> loadClassProfile(String key)
+    {
+        if (key.equals(profileKey)) return profile;
+        return Collections.emptyList();
+    }
+
+    public synchronized void saveClassProfile(String key, List<String> classNames)
+    {
+        this.profile = Collections.unmodifiableList(new ArrayList<String>(classNames));
+        this.profileKey = key;
+    }
+}
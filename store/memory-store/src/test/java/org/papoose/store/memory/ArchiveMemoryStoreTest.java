@@ -0,0 +1,148 @@
+/**
+ *
+ * Copyright 2010 (C) The original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.papoose.store.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class ArchiveMemoryStoreTest
+{
+    @Test
+    public void testCentralDirectory() throws Exception
+    {
+        byte[] bytes = createJar(null);
+
+        Map<String, Integer> offsets = ArchiveMemoryStore.readCentralDirectory(bytes);
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("META-INF/MANIFEST.MF", "com/", "com/acme/", "com/acme/Anvil.class", "com/acme/stored.txt")), offsets.keySet());
+
+        for (Map.Entry<String, Integer> entry : offsets.entrySet())
+        {
+            ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(bytes, entry.getValue(), bytes.length - entry.getValue()));
+
+            Assert.assertEquals(entry.getKey(), zipInputStream.getNextEntry().getName());
+        }
+    }
+
+    @Test
+    public void testComment() throws Exception
+    {
+        // the comment holds what looks like an end of central directory record
+        byte[] bytes = createJar("PK\u0005\u0006 not the end of the central directory");
+
+        Map<String, Integer> offsets = ArchiveMemoryStore.readCentralDirectory(bytes);
+
+        Assert.assertEquals(5, offsets.size());
+        Assert.assertEquals(offsets, ArchiveMemoryStore.indexEntries("comment.jar", bytes));
+    }
+
+    @Test
+    public void testTruncated() throws Exception
+    {
+        byte[] bytes = createJar(null);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 10);
+
+        try
+        {
+            ArchiveMemoryStore.readCentralDirectory(truncated);
+            Assert.fail("Should have thrown an IOException");
+        }
+        catch (IOException ignore)
+        {
+        }
+
+        Map<String, Integer> offsets = ArchiveMemoryStore.indexEntries("truncated.jar", truncated);
+
+        Assert.assertEquals(ArchiveMemoryStore.readCentralDirectory(bytes).keySet(), offsets.keySet());
+        for (Integer offset : offsets.values()) Assert.assertEquals(0, offset.intValue());
+    }
+
+    @Test
+    public void testZip64() throws Exception
+    {
+        byte[] bytes = createJar(null);
+
+        // mark the entry count of the end of central directory record as held by a zip64 record
+        bytes[bytes.length - 22 + 10] = (byte) 0xFF;
+        bytes[bytes.length - 22 + 11] = (byte) 0xFF;
+
+        try
+        {
+            ArchiveMemoryStore.readCentralDirectory(bytes);
+            Assert.fail("Should have thrown an IOException");
+        }
+        catch (IOException ignore)
+        {
+        }
+    }
+
+    /**
+     * Create a jar whose deflated entries are followed by data descriptors
+     * and that also holds a stored entry.
+     *
+     * @param comment the archive comment, may be null
+     * @return the contents of the jar
+     */
+    private static byte[] createJar(String comment) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream out = new JarOutputStream(bytes, manifest);
+
+        out.putNextEntry(new ZipEntry("com/"));
+        out.putNextEntry(new ZipEntry("com/acme/"));
+
+        out.putNextEntry(new ZipEntry("com/acme/Anvil.class"));
+        out.write(new byte[1024]);
+
+        byte[] contents = "stored".getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+
+        ZipEntry stored = new ZipEntry("com/acme/stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(contents.length);
+        stored.setCrc(crc.getValue());
+
+        out.putNextEntry(stored);
+        out.write(contents);
+
+        if (comment != null) out.setComment(comment);
+
+        out.close();
+
+        return bytes.toByteArray();
+    }
+}